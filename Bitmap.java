@@ -0,0 +1,408 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, in the manner of a roaring
+ *  bitmap. The ints are split by their high 16 bits into chunks, each
+ *  kept in a container of its own, sorted by chunk: a sorted array of the
+ *  low 16 bits while the chunk holds at most 4096 of them, and a bitset
+ *  of all 65536 once it holds more. A sparse chunk thus takes two bytes
+ *  per int and a dense one at most 8 KiB, and two sets are combined
+ *  chunk by chunk, skipping the chunks only one of them has.
+ *  @author Yulin Li
+ */
+class Bitmap {
+
+    /** The most ints a chunk holds as an array. */
+    private static final int ARRAY_MAX = 4096;
+    /** The number of words of a bitset container. */
+    private static final int WORDS = (1 << Character.SIZE) / Long.SIZE;
+
+    /** The high 16 bits of the ints of each chunk, in increasing order. */
+    private char[] _keys = new char[4];
+    /** The container of each chunk: a char[] of the sorted low bits,
+     *  possibly longer than needed, or a long[] bitset. */
+    private Object[] _containers = new Object[4];
+    /** The number of ints in each chunk. */
+    private int[] _cards = new int[4];
+    /** The number of chunks. */
+    private int _size;
+
+    /**
+     * Adds X to this set.
+     * @param x a non-negative int.
+     */
+    void add(int x) {
+        char key = (char) (x >>> Character.SIZE);
+        char low = (char) x;
+        int k = find(key);
+        if (k < 0) {
+            insert(-k - 1, key, new char[] {low, 0, 0, 0}, 1);
+            return;
+        }
+        if (_containers[k] instanceof long[]) {
+            long[] words = (long[]) _containers[k];
+            if ((words[low >>> 6] & (1L << low)) == 0) {
+                words[low >>> 6] |= 1L << low;
+                _cards[k] += 1;
+            }
+            return;
+        }
+        char[] array = (char[]) _containers[k];
+        int card = _cards[k];
+        int i = Arrays.binarySearch(array, 0, card, low);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        if (card == ARRAY_MAX) {
+            long[] words = toWords(array, card);
+            words[low >>> 6] |= 1L << low;
+            _containers[k] = words;
+        } else {
+            if (card == array.length) {
+                array = Arrays.copyOf(array,
+                        Math.min(ARRAY_MAX, 2 * array.length));
+                _containers[k] = array;
+            }
+            System.arraycopy(array, i, array, i + 1, card - i);
+            array[i] = low;
+        }
+        _cards[k] += 1;
+    }
+
+    /**
+     * Returns true if X is in this set.
+     * @param x a non-negative int.
+     * @return if it is there.
+     */
+    boolean contains(int x) {
+        int k = find((char) (x >>> Character.SIZE));
+        return k >= 0 && has(_containers[k], _cards[k], (char) x);
+    }
+
+    /**
+     * Returns the number of ints in this set.
+     * @return the number.
+     */
+    int cardinality() {
+        int total = 0;
+        for (int k = 0; k < _size; k += 1) {
+            total += _cards[k];
+        }
+        return total;
+    }
+
+    /**
+     * Adds every int of OTHER to this set.
+     * @param other the other set, which is left as it is.
+     */
+    void or(Bitmap other) {
+        for (int j = 0; j < other._size; j += 1) {
+            int k = find(other._keys[j]);
+            Object theirs = other._containers[j];
+            int theirCard = other._cards[j];
+            if (k < 0) {
+                insert(-k - 1, other._keys[j], copy(theirs), theirCard);
+                continue;
+            }
+            Object ours = _containers[k];
+            int ourCard = _cards[k];
+            if (ours instanceof char[] && theirs instanceof char[]
+                    && ourCard + theirCard <= ARRAY_MAX) {
+                char[] merged = new char[ourCard + theirCard];
+                int n = merge((char[]) ours, ourCard, (char[]) theirs,
+                        theirCard, merged);
+                _containers[k] = merged;
+                _cards[k] = n;
+            } else {
+                long[] words = ours instanceof long[]
+                    ? (long[]) ours : toWords((char[]) ours, ourCard);
+                if (theirs instanceof long[]) {
+                    long[] their = (long[]) theirs;
+                    for (int w = 0; w < WORDS; w += 1) {
+                        words[w] |= their[w];
+                    }
+                } else {
+                    char[] their = (char[]) theirs;
+                    for (int i = 0; i < theirCard; i += 1) {
+                        words[their[i] >>> 6] |= 1L << their[i];
+                    }
+                }
+                _containers[k] = words;
+                _cards[k] = count(words);
+            }
+        }
+    }
+
+    /**
+     * Returns the ints of this set that are not in OTHER.
+     * @param other the other set.
+     * @return a new set; neither this nor OTHER is changed.
+     */
+    Bitmap andNot(Bitmap other) {
+        Bitmap result = new Bitmap();
+        for (int k = 0; k < _size; k += 1) {
+            int j = other.find(_keys[k]);
+            if (j < 0) {
+                result.insert(result._size, _keys[k], copy(_containers[k]),
+                        _cards[k]);
+                continue;
+            }
+            Object theirs = other._containers[j];
+            int theirCard = other._cards[j];
+            Object container;
+            int card;
+            if (_containers[k] instanceof char[]) {
+                char[] ours = (char[]) _containers[k];
+                char[] kept = new char[_cards[k]];
+                card = 0;
+                for (int i = 0; i < _cards[k]; i += 1) {
+                    if (!has(theirs, theirCard, ours[i])) {
+                        kept[card] = ours[i];
+                        card += 1;
+                    }
+                }
+                container = kept;
+            } else {
+                long[] words = ((long[]) _containers[k]).clone();
+                long[] their = theirs instanceof long[]
+                    ? (long[]) theirs : toWords((char[]) theirs, theirCard);
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] &= ~their[w];
+                }
+                card = count(words);
+                container = card <= ARRAY_MAX ? toArray(words, card) : words;
+            }
+            if (card > 0) {
+                result.insert(result._size, _keys[k], container, card);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls ACTION on every int of this set, in increasing order.
+     * @param action the action.
+     */
+    void forEach(IntConsumer action) {
+        for (int k = 0; k < _size; k += 1) {
+            int high = _keys[k] << Character.SIZE;
+            if (_containers[k] instanceof char[]) {
+                char[] array = (char[]) _containers[k];
+                for (int i = 0; i < _cards[k]; i += 1) {
+                    action.accept(high | array[i]);
+                }
+            } else {
+                long[] words = (long[]) _containers[k];
+                for (int w = 0; w < WORDS; w += 1) {
+                    for (long word = words[w]; word != 0;
+                         word &= word - 1) {
+                        action.accept(high | (w << 6)
+                                | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the encoding of this set.
+     * @return the number of bytes.
+     */
+    int encodedLength() {
+        int length = Integer.BYTES;
+        for (int k = 0; k < _size; k += 1) {
+            length += Character.BYTES + Integer.BYTES;
+            length += _cards[k] <= ARRAY_MAX
+                ? _cards[k] * Character.BYTES : WORDS * Long.BYTES;
+        }
+        return length;
+    }
+
+    /**
+     * Writes this set to OUT: the number of chunks, then for each its
+     * key, its number of ints and its container, an array if it holds at
+     * most 4096 ints and a bitset otherwise.
+     * @param out the buffer.
+     */
+    void writeTo(ByteBuffer out) {
+        out.putInt(_size);
+        for (int k = 0; k < _size; k += 1) {
+            out.putChar(_keys[k]).putInt(_cards[k]);
+            if (_containers[k] instanceof long[]) {
+                long[] words = (long[]) _containers[k];
+                if (_cards[k] <= ARRAY_MAX) {
+                    out.asCharBuffer().put(toArray(words, _cards[k]));
+                    out.position(out.position()
+                            + _cards[k] * Character.BYTES);
+                } else {
+                    out.asLongBuffer().put(words);
+                    out.position(out.position() + WORDS * Long.BYTES);
+                }
+            } else {
+                out.asCharBuffer().put((char[]) _containers[k], 0,
+                        _cards[k]);
+                out.position(out.position() + _cards[k] * Character.BYTES);
+            }
+        }
+    }
+
+    /**
+     * Reads a set written by writeTo from IN, leaving IN after it.
+     * @param in the buffer.
+     * @return the set.
+     */
+    static Bitmap readFrom(ByteBuffer in) {
+        Bitmap result = new Bitmap();
+        for (int k = in.getInt(); k > 0; k -= 1) {
+            char key = in.getChar();
+            int card = in.getInt();
+            Object container;
+            if (card <= ARRAY_MAX) {
+                char[] array = new char[card];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + card * Character.BYTES);
+                container = array;
+            } else {
+                long[] words = new long[WORDS];
+                in.asLongBuffer().get(words);
+                in.position(in.position() + WORDS * Long.BYTES);
+                container = words;
+            }
+            result.insert(result._size, key, container, card);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the chunk KEY, or -(where it would go) - 1.
+     * @param key the high 16 bits.
+     * @return the index.
+     */
+    private int find(char key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    /**
+     * Inserts the chunk KEY, of container CONTAINER holding CARD ints, at
+     * index K.
+     * @param k the index.
+     * @param key the high 16 bits.
+     * @param container the container.
+     * @param card the number of ints in it.
+     */
+    private void insert(int k, char key, Object container, int card) {
+        if (_size == _keys.length) {
+            _keys = Arrays.copyOf(_keys, 2 * _size);
+            _containers = Arrays.copyOf(_containers, 2 * _size);
+            _cards = Arrays.copyOf(_cards, 2 * _size);
+        }
+        System.arraycopy(_keys, k, _keys, k + 1, _size - k);
+        System.arraycopy(_containers, k, _containers, k + 1, _size - k);
+        System.arraycopy(_cards, k, _cards, k + 1, _size - k);
+        _keys[k] = key;
+        _containers[k] = container;
+        _cards[k] = card;
+        _size += 1;
+    }
+
+    /**
+     * Returns true if the container CONTAINER, holding CARD ints, has LOW.
+     * @param container the container.
+     * @param card the number of ints in it.
+     * @param low the low 16 bits.
+     * @return if it has them.
+     */
+    private static boolean has(Object container, int card, char low) {
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, card, low) >= 0;
+    }
+
+    /**
+     * Returns a copy of the container CONTAINER.
+     * @param container the container.
+     * @return the copy.
+     */
+    private static Object copy(Object container) {
+        return container instanceof long[]
+            ? ((long[]) container).clone() : ((char[]) container).clone();
+    }
+
+    /**
+     * Merges the first ACARD values of A and the first BCARD values of B,
+     * both sorted, into OUT, without duplicates.
+     * @param a the first array.
+     * @param aCard the number of values in it.
+     * @param b the second array.
+     * @param bCard the number of values in it.
+     * @param out the array receiving the merge.
+     * @return the number of values in OUT.
+     */
+    private static int merge(char[] a, int aCard, char[] b, int bCard,
+                             char[] out) {
+        int i = 0, j = 0, n = 0;
+        while (i < aCard || j < bCard) {
+            char next;
+            if (j == bCard || (i < aCard && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == aCard || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j += 1;
+            }
+            out[n++] = next;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the bitset of the first CARD values of ARRAY.
+     * @param array the sorted values.
+     * @param card the number of values.
+     * @return the bitset.
+     */
+    private static long[] toWords(char[] array, int card) {
+        long[] words = new long[WORDS];
+        for (int i = 0; i < card; i += 1) {
+            words[array[i] >>> 6] |= 1L << array[i];
+        }
+        return words;
+    }
+
+    /**
+     * Returns the sorted values of the bitset WORDS, which holds CARD.
+     * @param words the bitset.
+     * @param card the number of values in it.
+     * @return the values.
+     */
+    private static char[] toArray(long[] words, int card) {
+        char[] array = new char[card];
+        int n = 0;
+        for (int w = 0; w < WORDS; w += 1) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                array[n++] = (char) ((w << 6)
+                        | Long.numberOfTrailingZeros(word));
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Returns the number of bits set in WORDS.
+     * @param words the bitset.
+     * @return the number.
+     */
+    private static int count(long[] words) {
+        int card = 0;
+        for (long word : words) {
+            card += Long.bitCount(word);
+        }
+        return card;
+    }
+}
@@ -0,0 +1,303 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** The reachability bitmaps of a repository: for the commits at the tips
+ *  of its branches, the set of every commit, tree and blob reachable from
+ *  them, as a Bitmap. Whether a commit is an ancestor of a tip is then
+ *  one bit lookup, and the objects one tip has and another lacks are the
+ *  difference of their bitmaps.
+ *
+ *  Every object put in a bitmap is given a position, the next one free,
+ *  which it keeps for good; three more bitmaps record which positions
+ *  are commits, trees and blobs. The file, .gitlet/.pack/objects.bitmap,
+ *  holds the number of positions and the raw id at each, the three kind
+ *  bitmaps, then the number of reachability bitmaps and, for each, the
+ *  raw id of its commit and the bitmap, least recently used first. It is
+ *  rewritten through the write batch by the commands that add to it.
+ *
+ *  The bitmap of a commit that has none is built by walking back from it,
+ *  highest generation first, to the commits that have one, and adding the
+ *  commits in between with their trees and blobs. A tree already in the
+ *  bitmap is not looked into, since everything under it is there too; so
+ *  once a tip has its bitmap, that of a commit made on top of it only
+ *  costs the trees that commit changed. Only the 64 bitmaps used last are
+ *  kept.
+ *  @author Yulin Li
+ */
+public class BitmapIndex {
+
+    /** The kind of the positions of commits. */
+    static final int COMMIT = 0;
+    /** The kind of the positions of trees. */
+    static final int TREE = 1;
+    /** The kind of the positions of blobs. */
+    static final int BLOB = 2;
+    /** The number of kinds of objects. */
+    private static final int KINDS = 3;
+    /** The most reachability bitmaps kept in the file. */
+    private static final int MAX_BITMAPS = 64;
+
+    /** The object store of the repository. */
+    private final ObjectStore _store;
+    /** The bitmap file. */
+    private final File _file;
+    /** The id of the object at each position, or null until the file is
+     *  read. */
+    private ArrayList<String> _ids;
+    /** The position of each object. */
+    private HashMap<String, Integer> _positions;
+    /** The positions of each kind of object. */
+    private Bitmap[] _kinds;
+    /** The reachability bitmaps by commit id, least recently used first. */
+    private LinkedHashMap<String, Bitmap> _bitmaps;
+    /** True if anything was added since the file was read. */
+    private boolean _dirty;
+
+    /**
+     * The reachability bitmaps of the objects of STORE, kept in FILE.
+     * @param store the object store of the repository.
+     * @param file the bitmap file.
+     */
+    BitmapIndex(ObjectStore store, File file) {
+        _store = store;
+        _file = file;
+    }
+
+    /**
+     * Returns the reachability bitmaps of the repository in the CWD.
+     * @return the index.
+     */
+    public static BitmapIndex local() {
+        return ObjectStore.local().bitmaps();
+    }
+
+    /**
+     * Returns true if the commit ID has a bitmap already, so that asking
+     * for it costs no walk.
+     * @param id the id of the commit.
+     * @return if it has one.
+     */
+    public boolean hasBitmap(String id) {
+        load();
+        return _bitmaps.containsKey(id);
+    }
+
+    /**
+     * Returns true if the commit ANCESTOR is reachable from the commit ID,
+     * or is ID.
+     * @param ancestor the id of the possible ancestor.
+     * @param id the id of the commit.
+     * @return if it is reachable.
+     */
+    public boolean isAncestor(String ancestor, String id) {
+        Bitmap reach = reach(id);
+        Integer pos = _positions.get(ancestor);
+        return pos != null && reach.contains(pos);
+    }
+
+    /**
+     * Returns the positions of every object reachable from the commit ID,
+     * building its bitmap if it has none. The bitmap must not be changed.
+     * @param id the id of the commit.
+     * @return the bitmap.
+     */
+    public Bitmap reach(String id) {
+        load();
+        Bitmap found = _bitmaps.get(id);
+        if (found != null) {
+            return found;
+        }
+        CommitGraph graph = _store.graph();
+        PriorityQueue<String> queue = new PriorityQueue<>(Comparator
+            .comparingInt((String commit) -> graph.generation(commit))
+            .reversed());
+        HashSet<String> queued = new HashSet<>();
+        ArrayList<String> fresh = new ArrayList<>();
+        Bitmap reach = new Bitmap();
+        queue.add(id);
+        queued.add(id);
+        while (!queue.isEmpty()) {
+            String commit = queue.poll();
+            Integer pos = _positions.get(commit);
+            if (pos != null && reach.contains(pos)) {
+                continue;
+            }
+            Bitmap known = _bitmaps.get(commit);
+            if (known != null) {
+                reach.or(known);
+                continue;
+            }
+            fresh.add(commit);
+            for (String parent
+                     : new String[] {graph.parent(commit),
+                                     graph.otherParent(commit)}) {
+                if (parent != null && graph.contains(parent)
+                        && queued.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        for (String commit : fresh) {
+            reach.add(position(commit, COMMIT));
+            Commit read = Commit.readCommit(_store, commit);
+            if (read.getTreeID() != null) {
+                addTree(reach, read.getTreeID());
+            } else {
+                for (String blob : read.getBlobs().values()) {
+                    reach.add(position(blob, BLOB));
+                }
+            }
+        }
+        _bitmaps.put(id, reach);
+        _dirty = true;
+        return reach;
+    }
+
+    /**
+     * Returns the ids of the objects of kind KIND at the positions in
+     * OBJECTS, in the order of their positions.
+     * @param objects the positions.
+     * @param kind COMMIT, TREE or BLOB.
+     * @return the ids.
+     */
+    public List<String> ids(Bitmap objects, int kind) {
+        load();
+        ArrayList<String> ids = new ArrayList<>();
+        objects.forEach(pos -> {
+            if (_kinds[kind].contains(pos)) {
+                ids.add(_ids.get(pos));
+            }
+        });
+        return ids;
+    }
+
+    /**
+     * Adds the tree ID, and every tree and blob under it, to REACH.
+     * Trees already in REACH are skipped along with everything under
+     * them.
+     * @param reach the bitmap.
+     * @param id the id of the tree.
+     */
+    private void addTree(Bitmap reach, String id) {
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.push(id);
+        while (!toVisit.isEmpty()) {
+            String tree = toVisit.pop();
+            int pos = position(tree, TREE);
+            if (reach.contains(pos)) {
+                continue;
+            }
+            reach.add(pos);
+            for (Map.Entry<String, String> entry
+                     : Tree.read(_store, tree).entries().entrySet()) {
+                if (entry.getKey().endsWith(Tree.SEP)) {
+                    toVisit.push(entry.getValue());
+                } else {
+                    reach.add(position(entry.getValue(), BLOB));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the object ID of kind KIND, giving it the
+     * next one if it has none.
+     * @param id the id of the object.
+     * @param kind COMMIT, TREE or BLOB.
+     * @return the position.
+     */
+    private int position(String id, int kind) {
+        Integer pos = _positions.get(id);
+        if (pos == null) {
+            pos = _ids.size();
+            _ids.add(id);
+            _positions.put(id, pos);
+            _kinds[kind].add(pos);
+            _dirty = true;
+        }
+        return pos;
+    }
+
+    /** Reads the file, if this command has not yet. */
+    private void load() {
+        if (_ids != null) {
+            return;
+        }
+        _ids = new ArrayList<>();
+        _positions = new HashMap<>();
+        _kinds = new Bitmap[KINDS];
+        _bitmaps = new LinkedHashMap<>(16, 0.75f, true);
+        if (!WriteBatch.exists(_file)) {
+            for (int k = 0; k < KINDS; k += 1) {
+                _kinds[k] = new Bitmap();
+            }
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(WriteBatch.readContents(_file));
+        byte[] raw = new byte[ObjectStore.ID_BYTES];
+        for (int k = in.getInt(); k > 0; k -= 1) {
+            in.get(raw);
+            String id = ObjectStore.fromRaw(raw);
+            _positions.put(id, _ids.size());
+            _ids.add(id);
+        }
+        for (int k = 0; k < KINDS; k += 1) {
+            _kinds[k] = Bitmap.readFrom(in);
+        }
+        for (int k = in.getInt(); k > 0; k -= 1) {
+            in.get(raw);
+            _bitmaps.put(ObjectStore.fromRaw(raw), Bitmap.readFrom(in));
+        }
+    }
+
+    /**
+     * Hands the file to the write batch if anything was added to it,
+     * keeping only the bitmaps used last.
+     */
+    void flush() {
+        if (!_dirty) {
+            return;
+        }
+        Iterator<String> eldest = _bitmaps.keySet().iterator();
+        for (int k = _bitmaps.size(); k > MAX_BITMAPS; k -= 1) {
+            eldest.next();
+            eldest.remove();
+        }
+        int length = Integer.BYTES + _ids.size() * ObjectStore.ID_BYTES
+            + Integer.BYTES;
+        for (Bitmap kind : _kinds) {
+            length += kind.encodedLength();
+        }
+        for (Bitmap bitmap : _bitmaps.values()) {
+            length += ObjectStore.ID_BYTES + bitmap.encodedLength();
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(_ids.size());
+        for (String id : _ids) {
+            out.put(ObjectStore.toRaw(id));
+        }
+        for (Bitmap kind : _kinds) {
+            kind.writeTo(out);
+        }
+        out.putInt(_bitmaps.size());
+        for (Map.Entry<String, Bitmap> entry : _bitmaps.entrySet()) {
+            out.put(ObjectStore.toRaw(entry.getKey()));
+            entry.getValue().writeTo(out);
+        }
+        _store.makeDir();
+        WriteBatch.write(_file, out.array());
+        _dirty = false;
+    }
+}
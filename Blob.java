@@ -1,21 +1,72 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import static java.lang.System.getProperty;
 
-/** Class of the blobs tracked by this gitlet.
+/** Class of the blobs tracked by this gitlet. A blob is a handle on the
+ *  raw bytes of a file: its content is never held as a whole, but hashed,
+ *  stored and written back a chunk at a time, so the memory a blob needs
+ *  does not grow with the size of the file.
  *  @author Yulin Li
  */
 public class Blob implements Serializable {
 
+    /** The serial version of this class, fixed so that the objects of
+     *  existing repositories stay readable as the class grows. */
+    private static final long serialVersionUID = 7337637046803428517L;
+
+    /** The first byte of the stored form of a deflated blob. Blobs that
+     *  were stored as serialized objects start with the serialization
+     *  magic number instead. */
+    static final byte DEFLATED = 'z';
+    /** The first byte of the stored form of a blob kept uncompressed. */
+    static final byte STORED = 'r';
+    /** The first byte of the stored form of a blob kept as a delta against
+     *  another blob. It is followed by the length of the chain of deltas
+     *  down to a whole blob, the raw id of the base and the deflated
+     *  delta. */
+    static final byte DELTA = 'd';
+    /** The smallest content worth storing as a delta. */
+    private static final int MIN_DELTA = 1 << 10;
+    /** The largest content stored as a delta. A delta is computed in
+     *  memory, so anything larger is always stored whole. */
+    private static final int MAX_DELTA = 16 << 20;
+    /** The longest chain of deltas, bounding the work of a read. */
+    static final int MAX_DEPTH = 10;
+
     /** The name of the blob. */
     private String _name;
     /** The id of the blob. */
     private String _id;
-    /** The content of the blob as a string. */
+    /** The content of the blob as a string. Only blobs stored as
+     *  serialized objects by older versions of gitlet carry it. */
     private String _content;
+    /** The file this blob was made from, or null. */
+    private transient File _source;
+    /** The content this blob was made from in memory, or null. */
+    private transient byte[] _bytes;
+    /** The object store this blob was read from, or null. */
+    private transient ObjectStore _store;
+    /** The id under which _store holds the content of this blob. */
+    private transient String _storedAs;
 
     /** The CWD file. */
     public static final File CWD = new File(getProperty("user.dir"));
@@ -36,20 +87,343 @@ public class Blob implements Serializable {
     /**
      * Constructor for a blob.
      * @param name the name of the file stored in this blob.
-     * @param content the content of the blob taken as a string.
+     * @param id the id of the blob.
+     * @param source the file holding the content, or null.
+     * @param store the object store holding the content, or null.
      */
-    public Blob(String name, String content) {
+    private Blob(String name, String id, File source, ObjectStore store) {
         _name = name;
-        _content = content;
-        _id = Utils.sha1(name + content);
+        _id = id;
+        _source = source;
+        _store = store;
+        _storedAs = id;
+    }
+
+    /**
+     * Returns the blob of the file FILE named NAME.
+     * @param name the name of the file stored in this blob.
+     * @param file the file.
+     * @return the blob, whose content is read from FILE when needed.
+     */
+    public static Blob fromFile(String name, File file) {
+        return fromFile(name, file, idOf(file));
+    }
+
+    /**
+     * Returns the blob of the file FILE named NAME, whose content is
+     * already known to have the id ID.
+     * @param name the name of the file stored in this blob.
+     * @param file the file.
+     * @param id the id of its content.
+     * @return the blob, whose content is read from FILE when needed.
+     */
+    public static Blob fromFile(String name, File file, String id) {
+        return new Blob(name, id, file, null);
+    }
+
+    /**
+     * Returns the blob named NAME holding CONTENT, which is kept in memory
+     * rather than in a file, as a merge conflict is.
+     * @param name the name of the file stored in this blob.
+     * @param content the content.
+     * @return the blob.
+     */
+    public static Blob fromContent(String name, byte[] content) {
+        Blob blob = new Blob(name, Utils.sha1(content), null, null);
+        blob._bytes = content;
+        return blob;
+    }
+
+    /**
+     * Returns the id that the file FILE would have as a blob, hashing its
+     * content a chunk at a time. A blob is addressed by its content alone,
+     * so files with the same content share one blob whatever their names.
+     * @param file the file.
+     * @return the id.
+     */
+    public static String idOf(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocate(ObjectStore.CHUNK);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+            return ObjectStore.fromRaw(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the id by content of the blob OLDID in STORE, storing the
+     * blob under that id if it is not there yet. Blobs of older versions
+     * of gitlet are addressed by their name and content together.
+     * @param store the object store of the repository.
+     * @param oldID the id the blob is stored under.
+     * @return its id by content.
+     */
+    static String rehash(ObjectStore store, String oldID) {
+        Blob old = readBlob(store, oldID);
+        String id;
+        try (InputStream in = old.openSource()) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[ObjectStore.CHUNK];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+            id = ObjectStore.fromRaw(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!id.equals(oldID)) {
+            Blob moved = new Blob(null, id, null, store);
+            moved._storedAs = oldID;
+            moved.writeBlob(store);
+        }
+        return id;
     }
 
     /**
      * Write a blob in disk.
      */
     public void writeBlob() {
-        Utils.writeObject(new File(
-                BLOBFILE.toString() + "/" + this._id), this);
+        writeBlob(ObjectStore.local());
+    }
+
+    /**
+     * Write a blob in the object store STORE, unless it is already there.
+     * The content is deflated on its way into the pack, or stored as is
+     * when deflating does not make it any smaller.
+     * @param store the object store of the repository.
+     */
+    public void writeBlob(ObjectStore store) {
+        writeBlob(store, null);
+    }
+
+    /**
+     * Write a blob in the object store STORE, unless it is already there,
+     * as a delta against the blob BASEID if that is smaller than storing
+     * it whole.
+     * @param store the object store of the repository.
+     * @param baseID the id of the previous version of the file, or null.
+     */
+    public void writeBlob(ObjectStore store, String baseID) {
+        if (store.contains(_id, ObjectStore.BLOBS)) {
+            return;
+        }
+        if (baseID != null && !baseID.equals(_id)
+                && writeDelta(store, baseID)) {
+            return;
+        }
+        ObjectStore.RecordOutput out = store.newRecord(_id);
+        Deflater deflater = new Deflater();
+        try (InputStream in = openSource()) {
+            out.write(DEFLATED);
+            DeflaterOutputStream zip = new DeflaterOutputStream(out,
+                    deflater, ObjectStore.CHUNK);
+            long length = copy(in, zip);
+            zip.finish();
+            if (out.length() > length + 1) {
+                out.abort();
+                writeStored(store);
+            } else {
+                out.close();
+            }
+        } catch (IOException excp) {
+            out.abort();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write this blob in the object store STORE as a delta against the
+     * blob BASEID, unless this blob or its base is too small or too large
+     * for that, the chain of deltas would grow too long, or the delta is
+     * no smaller than the deflated content.
+     * @param store the object store of the repository.
+     * @param baseID the id of the base.
+     * @return true if the delta was written.
+     */
+    private boolean writeDelta(ObjectStore store, String baseID) {
+        long length = _bytes != null ? _bytes.length
+            : _source != null ? _source.length() : -1;
+        if (length < MIN_DELTA || length > MAX_DELTA
+                || !store.contains(baseID)) {
+            return false;
+        }
+        int depth = depthOf(store, baseID);
+        if (depth >= MAX_DEPTH) {
+            return false;
+        }
+        byte[] base = readBlob(store, baseID).getContent();
+        if (base.length < MIN_DELTA || base.length > MAX_DELTA) {
+            return false;
+        }
+        byte[] content = _bytes != null ? _bytes
+            : Utils.readContents(_source);
+        byte[] delta = deflate(Delta.diff(base, content));
+        if (delta.length + ObjectStore.ID_BYTES + 2
+                >= deflate(content).length + 1) {
+            return false;
+        }
+        ObjectStore.RecordOutput out = store.newRecord(_id);
+        try {
+            out.write(DELTA);
+            out.write(depth + 1);
+            out.write(ObjectStore.toRaw(baseID));
+            out.write(delta);
+            out.close();
+        } catch (IOException excp) {
+            out.abort();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the chain of deltas from the blob ID in STORE
+     * down to a whole blob.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob.
+     * @return the length, 0 if the blob is stored whole.
+     */
+    private static int depthOf(ObjectStore store, String id) {
+        try (InputStream in = store.openStream(id)) {
+            if (in == null || in.read() != DELTA) {
+                return 0;
+            }
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the id of the base of the blob ID in STORE, or null if it is
+     * stored whole.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob.
+     * @return the id of the base.
+     */
+    private static String baseOf(ObjectStore store, String id) {
+        try (InputStream in = store.openStream(id)) {
+            if (in == null || in.read() != DELTA) {
+                return null;
+            }
+            in.read();
+            return ObjectStore.fromRaw(in.readNBytes(ObjectStore.ID_BYTES));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns DATA deflated.
+     * @param data the bytes to deflate.
+     * @return the deflated bytes.
+     */
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+            out.write(data);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copies the blob ID from the object store FROM to the object store
+     * TO, unless TO already has it. The stored form is copied as it is,
+     * so a delta stays a delta, and its base is copied first.
+     * @param from the object store holding the blob.
+     * @param to the object store receiving it.
+     * @param id the Id of the blob.
+     */
+    public static void copy(ObjectStore from, ObjectStore to, String id) {
+        if (!to.wants(id, ObjectStore.BLOBS)) {
+            return;
+        }
+        String base = baseOf(from, id);
+        if (base != null) {
+            copy(from, to, base);
+        }
+        try (InputStream in = from.openStream(id)) {
+            if (in == null) {
+                readBlob(from, id).writeBlob(to);
+                return;
+            }
+            ObjectStore.RecordOutput out = to.newRecord(id);
+            try {
+                copy(in, out);
+                out.close();
+            } catch (IOException excp) {
+                out.abort();
+                throw excp;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write this blob uncompressed in the object store STORE.
+     * @param store the object store of the repository.
+     * @throws IOException if the content cannot be read or written.
+     */
+    private void writeStored(ObjectStore store) throws IOException {
+        ObjectStore.RecordOutput out = store.newRecord(_id);
+        try (InputStream in = openSource()) {
+            out.write(STORED);
+            copy(in, out);
+            out.close();
+        } catch (IOException excp) {
+            out.abort();
+            throw excp;
+        }
+    }
+
+    /**
+     * Returns a new stream of the content of this blob, from the file or
+     * the object store it came from.
+     * @return the stream, which the caller must close.
+     * @throws IOException if the content cannot be read.
+     */
+    private InputStream openSource() throws IOException {
+        if (_bytes != null) {
+            return new ByteArrayInputStream(_bytes);
+        }
+        if (_source != null) {
+            return Channels.newInputStream(FileChannel.open(
+                    _source.toPath(), StandardOpenOption.READ));
+        }
+        InputStream in = openContent(_store, _storedAs);
+        if (in == null) {
+            in = new ByteArrayInputStream(getContent());
+        }
+        return in;
+    }
+
+    /**
+     * Copies everything left in IN to OUT a chunk at a time.
+     * @param in the stream read.
+     * @param out the stream written.
+     * @return the number of bytes copied.
+     * @throws IOException if either stream fails.
+     */
+    private static long copy(InputStream in, OutputStream out)
+        throws IOException {
+        byte[] buf = new byte[ObjectStore.CHUNK];
+        long total = 0;
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
     }
 
     /**
@@ -58,8 +432,104 @@ public class Blob implements Serializable {
      * @return the file containing the blob requested.
      */
     public static Blob readBlob(String id) {
-        return Utils.readObject(new File(
-                BLOBFILE.toString() + "/" + id), Blob.class);
+        return readBlob(ObjectStore.local(), id);
+    }
+
+    /**
+     * read the blob of id ID back from the object store STORE. Nothing is
+     * read until the content is asked for.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob to be read.
+     * @return the blob requested.
+     */
+    public static Blob readBlob(ObjectStore store, String id) {
+        return new Blob(null, id, null, store);
+    }
+
+    /**
+     * Writes the content of the blob ID in STORE into the file TARGET,
+     * inflating it on the way rather than reading it all into memory. A
+     * blob kept uncompressed in the pack is transferred straight from the
+     * pack into the file.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob.
+     * @param target the file to be written.
+     */
+    public static void writeContentTo(ObjectStore store, String id,
+                                      File target) {
+        if (store.transferTo(id, STORED, target)) {
+            return;
+        }
+        try (InputStream in = openContent(store, id)) {
+            if (in == null) {
+                Utils.writeContents(target,
+                        readBlob(store, id).getContent());
+            } else {
+                try (OutputStream out = Files.newOutputStream(
+                        target.toPath())) {
+                    copy(in, out);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns a stream of the content of the blob ID in STORE, or null if
+     * the blob is only kept as a serialized Blob.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob.
+     * @return the stream, which the caller must close.
+     * @throws IOException if the pack cannot be read.
+     */
+    private static InputStream openContent(ObjectStore store, String id)
+        throws IOException {
+        InputStream in = store.openStream(id);
+        if (in == null) {
+            return null;
+        }
+        int encoding = in.read();
+        if (encoding == DEFLATED) {
+            return new InflaterInputStream(in);
+        } else if (encoding == STORED) {
+            return in;
+        } else if (encoding == DELTA) {
+            try {
+                return new ByteArrayInputStream(fromDelta(store, id, in));
+            } finally {
+                in.close();
+            }
+        }
+        in.close();
+        return null;
+    }
+
+    /**
+     * Returns the content of the blob ID in STORE, rebuilt from the delta
+     * read from IN, which is positioned just after the encoding byte. The
+     * contents of the blob and its base are cached for later reads.
+     * @param store the object store of the repository holding the blob.
+     * @param id the Id of the blob.
+     * @param in the stream of its stored form.
+     * @return the content.
+     * @throws IOException if the pack cannot be read.
+     */
+    private static byte[] fromDelta(ObjectStore store, String id,
+                                    InputStream in) throws IOException {
+        byte[] content = ObjectCache.get(id);
+        if (content != null) {
+            return content;
+        }
+        in.read();
+        String baseID = ObjectStore.fromRaw(
+                in.readNBytes(ObjectStore.ID_BYTES));
+        byte[] base = readBlob(store, baseID).getContent();
+        try (InflaterInputStream delta = new InflaterInputStream(in)) {
+            content = Delta.apply(base, delta.readAllBytes());
+        }
+        ObjectCache.put(id, content, content.length);
+        return content;
     }
 
     /**
@@ -71,10 +541,35 @@ public class Blob implements Serializable {
     }
 
     /**
-     * getter method for the blob's content.
+     * getter method for the blob's content. This reads the whole content
+     * into memory, so it is only meant for the likes of merge conflicts.
      * @return the the content.
      */
-    public String getContent() {
-        return _content;
+    public byte[] getContent() {
+        if (_content != null) {
+            return _content.getBytes(StandardCharsets.UTF_8);
+        }
+        if (_bytes != null) {
+            return _bytes;
+        }
+        if (_source != null) {
+            return Utils.readContents(_source);
+        }
+        byte[] content = ObjectCache.get(_storedAs);
+        if (content != null) {
+            return content;
+        }
+        try (InputStream in = openContent(_store, _storedAs)) {
+            if (in == null) {
+                content = _store.read(_storedAs, ObjectStore.BLOBS,
+                        Blob.class).getContent();
+            } else {
+                content = in.readAllBytes();
+            }
+            ObjectCache.put(_storedAs, content, content.length);
+            return content;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }
@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+
+/** A Bloom filter over object ids, answering whether a store may have an
+ *  object without looking it up. It never says an object the store has
+ *  is missing, and says a missing object may be there about once in a
+ *  hundred times, so most lookups of missing objects cost no search of
+ *  the index at all.
+ *
+ *  Ids are SHA-1 hashes, so their bits are already uniform: the positions
+ *  of an id are taken from its first sixteen bytes by double hashing.
+ *  @author Yulin Li
+ */
+class BloomFilter {
+
+    /** The number of bits kept per id. */
+    private static final int BITS_PER_ID = 10;
+    /** The number of bits set per id. */
+    private static final int HASHES = 7;
+    /** The length of the header of the encoding. */
+    private static final int HEADER = Integer.BYTES + Long.BYTES;
+
+    /** The bits. */
+    private final long[] _bits;
+    /** The number of ids of the index it was built over. */
+    private final int _count;
+    /** The length of the pack covered by that index. */
+    private final long _covered;
+
+    /**
+     * An empty filter sized for COUNT ids, over an index of COUNT ids
+     * covering COVERED bytes of the pack.
+     * @param count the number of ids.
+     * @param covered the length of the pack covered by the index.
+     */
+    BloomFilter(int count, long covered) {
+        this(new long[Math.max(1,
+                (int) (((long) count * BITS_PER_ID + Long.SIZE - 1)
+                        / Long.SIZE))], count, covered);
+    }
+
+    /**
+     * A filter of bits BITS over an index of COUNT ids covering COVERED
+     * bytes of the pack.
+     * @param bits the bits.
+     * @param count the number of ids.
+     * @param covered the length of the pack covered by the index.
+     */
+    private BloomFilter(long[] bits, int count, long covered) {
+        _bits = bits;
+        _count = count;
+        _covered = covered;
+    }
+
+    /**
+     * Adds the raw id RAW.
+     * @param raw the raw id.
+     */
+    void add(byte[] raw) {
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        long h1 = buf.getLong(0), h2 = buf.getLong(Long.BYTES);
+        long bits = (long) _bits.length * Long.SIZE;
+        for (int k = 0; k < HASHES; k += 1) {
+            long bit = Math.floorMod(h1 + k * h2, bits);
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns false if the raw id RAW was certainly never added.
+     * @param raw the raw id.
+     * @return if it may have been added.
+     */
+    boolean mightContain(byte[] raw) {
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        long h1 = buf.getLong(0), h2 = buf.getLong(Long.BYTES);
+        long bits = (long) _bits.length * Long.SIZE;
+        for (int k = 0; k < HASHES; k += 1) {
+            long bit = Math.floorMod(h1 + k * h2, bits);
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if this filter was built over an index of COUNT ids
+     * covering COVERED bytes of the pack.
+     * @param count the number of ids of the index.
+     * @param covered the length of the pack it covers.
+     * @return if the filter is up to date.
+     */
+    boolean covers(int count, long covered) {
+        return _count == count && _covered == covered;
+    }
+
+    /**
+     * Returns the encoding of this filter: the count and length it was
+     * built over, then its bits.
+     * @return the bytes.
+     */
+    byte[] toByteArray() {
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                + _bits.length * Long.BYTES);
+        out.putInt(_count).putLong(_covered);
+        out.asLongBuffer().put(_bits);
+        return out.array();
+    }
+
+    /**
+     * Returns the filter encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the filter, or null if BYTES are not one.
+     */
+    static BloomFilter fromBytes(byte[] bytes) {
+        if (bytes.length < HEADER + Long.BYTES
+                || (bytes.length - HEADER) % Long.BYTES != 0) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int count = in.getInt();
+        long covered = in.getLong();
+        long[] bits = new long[(bytes.length - HEADER) / Long.BYTES];
+        in.asLongBuffer().get(bits);
+        return new BloomFilter(bits, count, covered);
+    }
+}
@@ -0,0 +1,447 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A set of changes to the files of the working directory, as checkout,
+ *  reset and merge make them: files to write with the content of a blob,
+ *  and files to delete.
+ *
+ *  The files to write are decoded from the object store into temporary
+ *  files next to them across a fixed pool of worker threads. Only once
+ *  every one of them is written are they renamed into place, in order:
+ *  each file there before, and each file to delete, is first renamed to
+ *  a backup next to it. If any write or rename fails, the files renamed
+ *  into place are removed, the backups renamed back, and the temporary
+ *  files and the directories made for them removed, so the working
+ *  directory is left as it was, and the failure of the first failing
+ *  path in sorted order is thrown, however the threads ran. Once all are
+ *  in place, the backups are removed, and so are the directories the
+ *  deleted files leave empty. The temporary files and backups are named
+ *  .gitlet-*.tmp and .gitlet-*.bak, which status never lists, and are
+ *  made with the permissions of any new file, so the files put in place
+ *  have them too. The number of workers is that of Parallel, unless the
+ *  command is run with -Dgitlet.checkoutThreads=N; with N = 1 every file
+ *  is written on the calling thread.
+ *
+ *  Run with -Dgitlet.linkBlobs=true, files are hard links instead: each
+ *  blob is written once, read-only, under .gitlet/.links, named like a
+ *  loose object, and every file with that content is a link to it. The
+ *  working files are then read-only too, and share their pages with the
+ *  copy under .gitlet/.links, so a tool changing one must replace it
+ *  rather than write into it, as gitlet itself does. Where links cannot
+ *  be made, the file is written as usual. Once a checkout has replaced
+ *  or deleted a file that was such a link, every copy under .gitlet/.links
+ *  that no working file links to any more, as its link count is 1, is
+ *  removed, along with the directories it leaves empty.
+ *  @author Yulin Li
+ */
+class Checkout {
+
+    /** The property setting the number of workers. */
+    static final String THREADS_PROPERTY = "gitlet.checkoutThreads";
+    /** The property asking for working files to be hard links. */
+    static final String LINK_PROPERTY = "gitlet.linkBlobs";
+    /** The directory of the blobs that working files are links to. */
+    static final String LINKS_DIR = ".links";
+    /** The prefix of the temporary files. */
+    private static final String TEMP_PREFIX = ".gitlet-";
+    /** The suffix of the temporary files. */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** The suffix of the backups of the files replaced or deleted. */
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    /** The object store holding the blobs. */
+    private final ObjectStore _store;
+    /** The working directory. */
+    private final File _dir;
+    /** The paths changed, mapped to the ids of their new blobs, or to
+     *  null for the paths to delete. */
+    private final TreeMap<String, String> _changes = new TreeMap<>();
+
+    /**
+     * An empty set of changes to the working directory DIR, whose blobs
+     * are in STORE.
+     * @param store the object store holding the blobs.
+     * @param dir the working directory.
+     */
+    Checkout(ObjectStore store, File dir) {
+        _store = store;
+        _dir = dir;
+    }
+
+    /**
+     * Returns the number of workers files are written by.
+     * @return the number, at least 1.
+     */
+    static int workers() {
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                Parallel.parallelism()));
+    }
+
+    /**
+     * Records that the file PATH is to hold the content of the blob ID.
+     * @param path the path of the file in the working directory.
+     * @param id the id of the blob.
+     */
+    void write(String path, String id) {
+        _changes.put(path, id);
+    }
+
+    /**
+     * Records that the file PATH is to be deleted.
+     * @param path the path of the file in the working directory.
+     */
+    void delete(String path) {
+        _changes.put(path, null);
+    }
+
+    /**
+     * Makes the changes recorded, as a whole or not at all.
+     */
+    void apply() {
+        ArrayList<String> paths = new ArrayList<>();
+        for (Map.Entry<String, String> change : _changes.entrySet()) {
+            if (change.getValue() != null) {
+                paths.add(change.getKey());
+            }
+        }
+        ArrayList<File> madeDirs = new ArrayList<>();
+        try {
+            makeParents(paths, madeDirs);
+        } catch (IllegalArgumentException excp) {
+            rollBack(new File[0], madeDirs);
+            throw excp;
+        }
+        File[] temps = new File[paths.size()];
+        RuntimeException[] failures = new RuntimeException[paths.size()];
+        AtomicInteger firstFailure = new AtomicInteger(paths.size());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i += 1) {
+            int k = i;
+            tasks.add(() -> {
+                if (k > firstFailure.get()) {
+                    return null;
+                }
+                try {
+                    File target = new File(_dir, paths.get(k));
+                    temps[k] = scratchFile(target.getParentFile(),
+                            TEMP_SUFFIX);
+                    String id = _changes.get(paths.get(k));
+                    if (!Boolean.getBoolean(LINK_PROPERTY)
+                            || !link(id, temps[k])) {
+                        Blob.writeContentTo(_store, id, temps[k]);
+                    }
+                } catch (IOException | RuntimeException excp) {
+                    failures[k] = new IllegalArgumentException(
+                            paths.get(k) + ": " + excp.getMessage(), excp);
+                    firstFailure.accumulateAndGet(k, Math::min);
+                }
+                return null;
+            });
+        }
+        run(tasks);
+        if (firstFailure.get() < paths.size()) {
+            rollBack(temps, madeDirs);
+            throw failures[firstFailure.get()];
+        }
+        ArrayList<Move> moves = new ArrayList<>();
+        int written = 0;
+        try {
+            for (Map.Entry<String, String> change : _changes.entrySet()) {
+                Move move = new Move(new File(_dir, change.getKey()));
+                moves.add(move);
+                move.backUp();
+                if (change.getValue() != null) {
+                    move.place(temps[written]);
+                    written += 1;
+                }
+            }
+        } catch (IOException excp) {
+            for (int i = moves.size() - 1; i >= 0; i -= 1) {
+                moves.get(i).undo();
+            }
+            rollBack(temps, madeDirs);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        boolean unlinked = false;
+        for (Move move : moves) {
+            unlinked |= move.finish(_dir);
+        }
+        if (unlinked) {
+            pruneLinks(new File(_store.root(), LINKS_DIR));
+        }
+    }
+
+    /**
+     * Makes a new empty file in DIR, named by TEMP_PREFIX, a random number
+     * and SUFFIX. Unlike Files.createTempFile, it gets the permissions any
+     * new file gets, so that the file renamed into place has them too.
+     * @param dir the directory.
+     * @param suffix TEMP_SUFFIX or BACKUP_SUFFIX.
+     * @return the file.
+     * @throws IOException if it cannot be made.
+     */
+    private static File scratchFile(File dir, String suffix)
+        throws IOException {
+        while (true) {
+            long name = ThreadLocalRandom.current().nextLong();
+            File file = new File(dir, TEMP_PREFIX + Long.toHexString(name)
+                    + suffix);
+            try {
+                Files.createFile(file.toPath());
+                return file;
+            } catch (FileAlreadyExistsException excp) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file NAME is one a checkout makes for itself,
+     * left behind only if gitlet was stopped part way through one.
+     * @param name the path of the file.
+     * @return if it is a temporary file or backup of a checkout.
+     */
+    static boolean isScratch(String name) {
+        String base = name.substring(name.lastIndexOf('/') + 1);
+        return base.startsWith(TEMP_PREFIX)
+            && (base.endsWith(TEMP_SUFFIX) || base.endsWith(BACKUP_SUFFIX));
+    }
+
+    /**
+     * Returns the number of hard links to FILE.
+     * @param file the file.
+     * @return the number, or 0 if the file system does not tell.
+     */
+    private static int links(File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink",
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | RuntimeException excp) {
+            return 0;
+        }
+    }
+
+    /**
+     * Removes the copies of blobs under LINKS that no working file links
+     * to, and the directories they leave empty.
+     * @param links the directory of the copies.
+     */
+    private static void pruneLinks(File links) {
+        File[] dirs = links.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            File[] sources = dir.listFiles();
+            if (sources == null) {
+                continue;
+            }
+            for (File source : sources) {
+                if (links(source) == 1) {
+                    source.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /** The renames putting one path of the working directory in place. */
+    private static class Move {
+        /** The path. */
+        private final File _target;
+        /** The backup of the file that was there, or null if none was. */
+        private File _backup;
+        /** True once the new file is in place. */
+        private boolean _placed;
+
+        /**
+         * The renames of TARGET.
+         * @param target the path.
+         */
+        Move(File target) {
+            _target = target;
+        }
+
+        /**
+         * Renames the file at the path, if any, to a backup next to it.
+         * @throws IOException if it cannot be renamed.
+         */
+        void backUp() throws IOException {
+            if (!Files.exists(_target.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                return;
+            }
+            File backup = scratchFile(_target.getParentFile(),
+                    BACKUP_SUFFIX);
+            try {
+                Files.move(_target.toPath(), backup.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                backup.delete();
+                throw excp;
+            }
+            _backup = backup;
+        }
+
+        /**
+         * Renames TEMP to the path.
+         * @param temp the new file.
+         * @throws IOException if it cannot be renamed.
+         */
+        void place(File temp) throws IOException {
+            Files.move(temp.toPath(), _target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            _placed = true;
+        }
+
+        /** Removes the new file, if placed, and renames the backup back. */
+        void undo() {
+            try {
+                if (_placed) {
+                    Files.delete(_target.toPath());
+                }
+                if (_backup != null) {
+                    Files.move(_backup.toPath(), _target.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException excp) {
+                System.err.println("cannot restore " + _target + ": "
+                        + excp.getMessage());
+            }
+        }
+
+        /**
+         * Removes the backup and, if the path was deleted, the directories
+         * holding it that are left empty, up to DIR.
+         * @param dir the working directory.
+         * @return true if the backup was a hard link to another file.
+         */
+        boolean finish(File dir) {
+            boolean linked = false;
+            if (_backup != null) {
+                linked = links(_backup) > 1;
+                _backup.delete();
+            }
+            if (!_placed) {
+                File parent = _target.getParentFile();
+                while (!parent.equals(dir) && parent.delete()) {
+                    parent = parent.getParentFile();
+                }
+            }
+            return linked;
+        }
+    }
+
+    /**
+     * Replaces the file TEMP by a hard link to the read-only copy of the
+     * blob ID, writing that copy first if there is none.
+     * @param id the id of the blob.
+     * @param temp the file, which is removed even if no link is made.
+     * @return false if the file system would not make the link.
+     * @throws IOException if the copy cannot be written.
+     */
+    private boolean link(String id, File temp) throws IOException {
+        File source = new File(new File(new File(_store.root(), LINKS_DIR),
+                id.substring(0, ObjectStore.FANOUT)),
+                id.substring(ObjectStore.FANOUT));
+        if (!source.isFile()) {
+            source.getParentFile().mkdirs();
+            File written = scratchFile(source.getParentFile(), TEMP_SUFFIX);
+            Blob.writeContentTo(_store, id, written);
+            written.setReadOnly();
+            Files.move(written.toPath(), source.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(temp.toPath());
+        try {
+            Files.createLink(temp.toPath(), source.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs TASKS on the workers, or on the calling thread if there is one
+     * worker or one task, and waits for all of them.
+     * @param tasks the tasks, which do not throw.
+     */
+    private static void run(List<Callable<Void>> tasks) {
+        int workers = Math.min(workers(), tasks.size());
+        if (workers <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            pool.invokeAll(tasks);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Makes the missing directories holding the files PATHS, adding each
+     * to MADE as it is made.
+     * @param paths the paths of the files in the working directory.
+     * @param made the directories made, outermost first.
+     */
+    private void makeParents(List<String> paths, ArrayList<File> made) {
+        for (String path : paths) {
+            ArrayList<File> missing = new ArrayList<>();
+            for (File dir = new File(_dir, path).getParentFile();
+                 !dir.exists(); dir = dir.getParentFile()) {
+                missing.add(0, dir);
+            }
+            for (File dir : missing) {
+                if (!dir.mkdir()) {
+                    throw new IllegalArgumentException(
+                            "cannot make directory " + dir);
+                }
+                made.add(dir);
+            }
+        }
+    }
+
+    /**
+     * Removes the temporary files TEMPS that were made, and then the
+     * directories MADEDIRS, innermost first.
+     * @param temps the temporary files, null where none was made.
+     * @param madeDirs the directories made, outermost first.
+     */
+    private static void rollBack(File[] temps, ArrayList<File> madeDirs) {
+        for (File temp : temps) {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        for (int i = madeDirs.size() - 1; i >= 0; i -= 1) {
+            madeDirs.get(i).delete();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** The thin client of the gitlet server.
+ *
+ *  `java gitlet.Client ARGS` sends ARGS to the server of the repository in
+ *  the CWD, copies what the command prints to standard output and error
+ *  as it comes, and exits with its status. If no server is listening, the
+ *  command is run in this process instead, exactly as by Main, so scripts
+ *  can call the client whether a server runs or not.
+ *  @author Yulin Li
+ */
+public class Client {
+
+    /**
+     * Usage: java gitlet.Client ARGS, where ARGS contains
+     * <COMMAND> <OPERAND> ....
+     * @param args the commands.
+     */
+    public static void main(String... args) {
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(Server.address());
+        } catch (IOException excp) {
+            Main.main(args);
+            return;
+        }
+        try (server) {
+            DataOutputStream request = new DataOutputStream(
+                    Channels.newOutputStream(server));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            System.exit(copyAnswer(Channels.newInputStream(server)));
+        } catch (IOException excp) {
+            System.err.println("Lost the server: " + excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Copies the frames of the answer read from IN to standard output and
+     * error until its end.
+     * @param in the answer.
+     * @return the exit status of the command.
+     * @throws IOException if the answer cannot be read.
+     */
+    private static int copyAnswer(InputStream in) throws IOException {
+        DataInputStream frames = new DataInputStream(in);
+        byte[] buffer = new byte[1 << 13];
+        while (true) {
+            byte stream = frames.readByte();
+            if (stream == Server.END) {
+                System.out.flush();
+                return frames.readInt();
+            }
+            OutputStream out = stream == Server.ERR ? System.err : System.out;
+            for (int left = frames.readInt(); left > 0; ) {
+                int read = frames.read(buffer, 0, Math.min(left,
+                        buffer.length));
+                if (read < 0) {
+                    throw new IOException("answer cut short");
+                }
+                out.write(buffer, 0, read);
+                left -= read;
+            }
+            ((PrintStream) out).flush();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A compact binary encoding of commits, stages, branch and remote maps,
+ *  trees and message indexes, used in place of Java serialization. Every
+ *  encoding starts with a header of three bytes: the magic byte 'G', the
+ *  version of the encoding and the kind of object. Strings are written as
+ *  their length followed by their UTF-8 bytes, ids as their 20 raw bytes,
+ *  and maps as their size followed by their entries. Files written by
+ *  Java serialization start with a different byte, so both can be told
+ *  apart and read.
+ *
+ *  The decoder works directly on the bytes read from disk: it makes no
+ *  copies besides the Strings and maps it returns.
+ *  @author Yulin Li
+ */
+class Codec {
+
+    /** The first byte of every encoding. */
+    static final byte MAGIC = 'G';
+    /** The current version of the encoding. Version 2 records the tree of
+     *  a commit in place of its map of blobs, and version 3 records what
+     *  the stage has seen of the files of the working directory. */
+    static final byte VERSION = 3;
+    /** The kind of an encoded commit. */
+    static final byte COMMIT = 'C';
+    /** The kind of an encoded stage. */
+    static final byte STAGE = 'S';
+    /** The kind of an encoded branch map. */
+    static final byte BRANCHES = 'B';
+    /** The kind of an encoded tree. */
+    static final byte TREE = 'T';
+    /** The kind of an encoded message index. */
+    static final byte MESSAGES = 'M';
+    /** The kind of an encoded remote map. */
+    static final byte REMOTES = 'R';
+    /** The length of the header. */
+    private static final int HEADER = 3;
+    /** The hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Returns true if BYTES hold an encoding of the kind KIND rather than
+     * a serialized object.
+     * @param bytes the bytes read from disk.
+     * @param kind the kind of object.
+     * @return if they are encoded.
+     */
+    static boolean isEncoded(byte[] bytes, byte kind) {
+        return bytes.length >= HEADER && bytes[0] == MAGIC
+            && bytes[2] == kind;
+    }
+
+    /**
+     * Returns the encoding of the commit COMMIT.
+     * @param commit the commit.
+     * @return the bytes.
+     */
+    static byte[] encode(Commit commit) {
+        Writer out = new Writer(COMMIT);
+        out.id(commit.getID());
+        out.string(commit.getMsg());
+        out.string(commit.getDate());
+        out.optionalID(commit.getParentID());
+        out.optionalID(commit.getOtherParentID());
+        out.optionalID(commit.getTreeID());
+        if (commit.getTreeID() == null) {
+            out.idMap(commit.getCurrBlobs());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the commit encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the commit.
+     */
+    static Commit decodeCommit(byte[] bytes) {
+        Reader in = new Reader(bytes, COMMIT);
+        String id = in.id();
+        String msg = in.string();
+        String date = in.string();
+        String parent = in.optionalID();
+        String secondParent = in.optionalID();
+        String tree = in.version() < 2 ? null : in.optionalID();
+        HashMap<String, String> blobs = tree == null ? in.idMap() : null;
+        return new Commit(id, msg, date, parent, secondParent, tree, blobs);
+    }
+
+    /**
+     * Returns the encoding of the tree TREE.
+     * @param tree the tree.
+     * @return the bytes.
+     */
+    static byte[] encode(Tree tree) {
+        Writer out = new Writer(TREE);
+        out.idMap(tree.entries());
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the tree encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the tree.
+     */
+    static Tree decodeTree(byte[] bytes) {
+        Reader in = new Reader(bytes, TREE);
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int k = in.varint(); k > 0; k -= 1) {
+            String name = in.string();
+            entries.put(name, in.id());
+        }
+        return new Tree(entries);
+    }
+
+    /**
+     * Returns the encoding of the stage STAGE.
+     * @param stage the stage.
+     * @return the bytes.
+     */
+    static byte[] encode(Stage stage) {
+        Writer out = new Writer(STAGE);
+        out.idMap(stage.getAddingStage());
+        out.idMap(stage.getRemovingStage());
+        out.varint(stage.getFileStats().size());
+        for (Map.Entry<String, FileStat> entry
+                 : stage.getFileStats().entrySet()) {
+            FileStat stat = entry.getValue();
+            out.string(entry.getKey());
+            out.id(stat.getID());
+            out.fixed64(stat.getSize());
+            out.fixed64(stat.getMtime());
+            out.fixed64(stat.getInode());
+            out.fixed64(stat.getChecked());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the stage encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the stage.
+     */
+    static Stage decodeStage(byte[] bytes) {
+        Reader in = new Reader(bytes, STAGE);
+        HashMap<String, String> adding = in.idMap();
+        HashMap<String, String> removing = in.idMap();
+        HashMap<String, FileStat> stats = new HashMap<>();
+        if (in.version() >= 3) {
+            for (int k = in.varint(); k > 0; k -= 1) {
+                String name = in.string();
+                String id = in.id();
+                stats.put(name, new FileStat(in.fixed64(), in.fixed64(),
+                        in.fixed64(), id, in.fixed64()));
+            }
+        }
+        return new Stage(adding, removing, stats);
+    }
+
+    /**
+     * Returns the encoding of the branch map BRANCHES.
+     * @param branches the map from branch names to commit ids.
+     * @return the bytes.
+     */
+    static byte[] encodeBranches(HashMap<String, String> branches) {
+        Writer out = new Writer(BRANCHES);
+        out.idMap(branches);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the branch map encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the map from branch names to commit ids.
+     */
+    static HashMap<String, String> decodeBranches(byte[] bytes) {
+        return new Reader(bytes, BRANCHES).idMap();
+    }
+
+    /**
+     * Returns the encoding of the remote map REMOTES.
+     * @param remotes the map from remote names to their .gitlet
+     *                directories.
+     * @return the bytes.
+     */
+    static byte[] encodeRemotes(HashMap<String, File> remotes) {
+        Writer out = new Writer(REMOTES);
+        out.varint(remotes.size());
+        for (Map.Entry<String, File> entry : remotes.entrySet()) {
+            out.string(entry.getKey());
+            out.string(entry.getValue().getPath());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the remote map encoded in BYTES.
+     * @param bytes the encoding.
+     * @return the map from remote names to their .gitlet directories.
+     */
+    static HashMap<String, File> decodeRemotes(byte[] bytes) {
+        Reader in = new Reader(bytes, REMOTES);
+        HashMap<String, File> remotes = new HashMap<>();
+        for (int k = in.varint(); k > 0; k -= 1) {
+            String name = in.string();
+            remotes.put(name, new File(in.string()));
+        }
+        return remotes;
+    }
+
+    /**
+     * Returns the encoding of a message index mapping messages to the
+     * commits having them by MESSAGES, and words to the commits having
+     * them by WORDS.
+     * @param messages the map from messages to commit ids.
+     * @param words the map from words to commit ids.
+     * @return the bytes.
+     */
+    static byte[] encodeMessages(
+            Map<String, ? extends Collection<String>> messages,
+            Map<String, ? extends Collection<String>> words) {
+        Writer out = new Writer(MESSAGES);
+        out.idsMap(messages);
+        out.idsMap(words);
+        return out.toByteArray();
+    }
+
+    /**
+     * Adds the maps of the message index encoded in BYTES to MESSAGES and
+     * WORDS.
+     * @param bytes the encoding.
+     * @param messages the map from messages to commit ids.
+     * @param words the map from words to commit ids.
+     */
+    static void decodeMessages(
+            byte[] bytes, Map<String, LinkedHashSet<String>> messages,
+            Map<String, LinkedHashSet<String>> words) {
+        Reader in = new Reader(bytes, MESSAGES);
+        in.idsMap(messages);
+        in.idsMap(words);
+    }
+
+    /**
+     * Writes the branch map BRANCHES to FILE.
+     * @param file the branches file of a repository.
+     * @param branches the map from branch names to commit ids.
+     */
+    static void writeBranches(File file, HashMap<String, String> branches) {
+        WriteBatch.write(file, encodeBranches(branches));
+    }
+
+    /**
+     * Reads the branch map in FILE, whichever way it was written.
+     * @param file the branches file of a repository.
+     * @return the map from branch names to commit ids.
+     */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> readBranches(File file) {
+        byte[] bytes = WriteBatch.readContents(file);
+        if (isEncoded(bytes, BRANCHES)) {
+            return decodeBranches(bytes);
+        }
+        return Utils.deserialize(bytes, HashMap.class);
+    }
+
+    /** A growable buffer receiving an encoding. */
+    private static class Writer {
+
+        /** The bytes written so far. */
+        private byte[] _buf = new byte[256];
+        /** The number of bytes written so far. */
+        private int _size;
+
+        /**
+         * Starts the encoding of an object of the kind KIND.
+         * @param kind the kind of object.
+         */
+        Writer(byte kind) {
+            _buf[0] = MAGIC;
+            _buf[1] = VERSION;
+            _buf[2] = kind;
+            _size = HEADER;
+        }
+
+        /**
+         * Makes room for N more bytes.
+         * @param n the number of bytes.
+         */
+        private void reserve(int n) {
+            if (_size + n > _buf.length) {
+                byte[] bigger =
+                    new byte[Math.max(_buf.length * 2, _size + n)];
+                System.arraycopy(_buf, 0, bigger, 0, _size);
+                _buf = bigger;
+            }
+        }
+
+        /**
+         * Writes the non-negative VALUE, seven bits at a time.
+         * @param value the value.
+         */
+        void varint(int value) {
+            reserve(Integer.BYTES + 1);
+            while ((value & ~0x7f) != 0) {
+                _buf[_size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_size++] = (byte) value;
+        }
+
+        /**
+         * Writes VALUE as eight bytes.
+         * @param value the value.
+         */
+        void fixed64(long value) {
+            reserve(Long.BYTES);
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0;
+                 shift -= Byte.SIZE) {
+                _buf[_size++] = (byte) (value >>> shift);
+            }
+        }
+
+        /**
+         * Writes the string STR.
+         * @param str the string.
+         */
+        void string(String str) {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            reserve(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _size, bytes.length);
+            _size += bytes.length;
+        }
+
+        /**
+         * Writes the id ID.
+         * @param id the hexadecimal id.
+         */
+        void id(String id) {
+            reserve(ObjectStore.ID_BYTES);
+            for (int i = 0; i < ObjectStore.ID_BYTES; i += 1) {
+                int high = Character.digit(id.charAt(2 * i), 16);
+                int low = Character.digit(id.charAt(2 * i + 1), 16);
+                _buf[_size++] = (byte) ((high << 4) | low);
+            }
+        }
+
+        /**
+         * Writes the id ID, which may be null.
+         * @param id the hexadecimal id, or null.
+         */
+        void optionalID(String id) {
+            reserve(1);
+            _buf[_size++] = (byte) (id == null ? 0 : 1);
+            if (id != null) {
+                id(id);
+            }
+        }
+
+        /**
+         * Writes the map MAP from names to ids.
+         * @param map the map.
+         */
+        void idMap(Map<String, String> map) {
+            varint(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                string(entry.getKey());
+                id(entry.getValue());
+            }
+        }
+
+        /**
+         * Writes the map MAP from names to lists of ids.
+         * @param map the map.
+         */
+        void idsMap(Map<String, ? extends Collection<String>> map) {
+            varint(map.size());
+            for (Map.Entry<String, ? extends Collection<String>> entry
+                     : map.entrySet()) {
+                string(entry.getKey());
+                varint(entry.getValue().size());
+                for (String id : entry.getValue()) {
+                    id(id);
+                }
+            }
+        }
+
+        /**
+         * Returns the encoding.
+         * @return the bytes written.
+         */
+        byte[] toByteArray() {
+            byte[] result = new byte[_size];
+            System.arraycopy(_buf, 0, result, 0, _size);
+            return result;
+        }
+    }
+
+    /** A cursor over an encoding. */
+    private static class Reader {
+
+        /** The encoding. */
+        private final byte[] _buf;
+        /** The position of the next byte to read. */
+        private int _pos;
+
+        /**
+         * Starts reading the encoding BYTES of an object of the kind KIND.
+         * @param bytes the encoding.
+         * @param kind the kind of object expected.
+         */
+        Reader(byte[] bytes, byte kind) {
+            if (!isEncoded(bytes, kind) || bytes[1] > VERSION) {
+                throw new IllegalArgumentException("unknown encoding");
+            }
+            _buf = bytes;
+            _pos = HEADER;
+        }
+
+        /**
+         * Returns the version of the encoding being read.
+         * @return the version.
+         */
+        int version() {
+            return _buf[1];
+        }
+
+        /**
+         * Reads a value written by Writer.varint.
+         * @return the value.
+         */
+        int varint() {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = _buf[_pos++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Reads a value written by Writer.fixed64.
+         * @return the value.
+         */
+        long fixed64() {
+            long value = 0;
+            for (int k = 0; k < Long.BYTES; k += 1) {
+                value = (value << Byte.SIZE) | (_buf[_pos++] & 0xff);
+            }
+            return value;
+        }
+
+        /**
+         * Reads a string.
+         * @return the string.
+         */
+        String string() {
+            int length = varint();
+            String str = new String(_buf, _pos, length,
+                    StandardCharsets.UTF_8);
+            _pos += length;
+            return str;
+        }
+
+        /**
+         * Reads an id.
+         * @return the hexadecimal id.
+         */
+        String id() {
+            char[] hex = new char[Utils.UID_LENGTH];
+            for (int i = 0; i < ObjectStore.ID_BYTES; i += 1) {
+                int b = _buf[_pos++];
+                hex[2 * i] = HEX[(b >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[b & 0xf];
+            }
+            return new String(hex);
+        }
+
+        /**
+         * Reads an id that may be null.
+         * @return the hexadecimal id, or null.
+         */
+        String optionalID() {
+            return _buf[_pos++] == 0 ? null : id();
+        }
+
+        /**
+         * Reads a map from names to ids.
+         * @return the map.
+         */
+        HashMap<String, String> idMap() {
+            int size = varint();
+            HashMap<String, String> map =
+                new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+            for (int k = 0; k < size; k += 1) {
+                String name = string();
+                map.put(name, id());
+            }
+            return map;
+        }
+
+        /**
+         * Reads a map from names to lists of ids into MAP.
+         * @param map the map receiving the entries.
+         */
+        void idsMap(Map<String, LinkedHashSet<String>> map) {
+            for (int k = varint(); k > 0; k -= 1) {
+                String name = string();
+                LinkedHashSet<String> ids = new LinkedHashSet<>();
+                for (int n = varint(); n > 0; n -= 1) {
+                    ids.add(id());
+                }
+                map.put(name, ids);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.util.HashMap;
+
+/** A benchmark comparing Codec against Java serialization, whose main
+ *  program may be invoked as follows:
+ *      java gitlet.CodecBenchmark [COMMITS [FILES]]
+ *  It builds COMMITS commits (default 2000) tracking FILES files each
+ *  (default 100), then encodes and decodes all of them both ways, and
+ *  prints the average size and time per commit of each. Nothing is read
+ *  from or written to disk, so it may be run anywhere.
+ *  @author Yulin Li
+ */
+public class CodecBenchmark {
+
+    /** The number of rounds run before timing, to warm up the JIT. */
+    private static final int WARMUP = 3;
+    /** The number of rounds timed. */
+    private static final int ROUNDS = 5;
+    /** The default number of commits. */
+    private static final int COMMITS = 2000;
+    /** The default number of files per commit. */
+    private static final int FILES = 100;
+
+    /**
+     * Runs the benchmark.
+     * @param args the number of commits and of files per commit.
+     */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : COMMITS;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : FILES;
+        Commit[] sample = sample(commits, files);
+        for (int round = 0; round < WARMUP; round += 1) {
+            runSerialization(sample);
+            runCodec(sample);
+        }
+        long serialization = 0, codec = 0;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            serialization += runSerialization(sample);
+            codec += runCodec(sample);
+        }
+        long serialBytes = 0, codecBytes = 0;
+        for (Commit commit : sample) {
+            serialBytes += Utils.serialize(commit).length;
+            codecBytes += Codec.encode(commit).length;
+        }
+        long ops = (long) ROUNDS * commits;
+        System.out.printf("%d commits of %d files%n", commits, files);
+        System.out.printf("serialization: %8d bytes %8d ns/commit%n",
+                serialBytes / commits, serialization / ops);
+        System.out.printf("codec:         %8d bytes %8d ns/commit%n",
+                codecBytes / commits, codec / ops);
+    }
+
+    /**
+     * Returns COMMITS commits, each tracking FILES files.
+     * @param commits the number of commits.
+     * @param files the number of files per commit.
+     * @return the commits.
+     */
+    private static Commit[] sample(int commits, int files) {
+        Commit[] sample = new Commit[commits];
+        String parent = null;
+        for (int k = 0; k < commits; k += 1) {
+            HashMap<String, String> blobs = new HashMap<>();
+            for (int f = 0; f < files; f += 1) {
+                blobs.put("dir" + (f % 10) + "/file" + f + ".txt",
+                        Utils.sha1("content", Integer.toString(f + k)));
+            }
+            String id = Utils.sha1("commit", Integer.toString(k));
+            sample[k] = new Commit(id, "commit number " + k,
+                    "Wed Dec 31 16:00:00 1969 -0800", parent, null, null,
+                    blobs);
+            parent = id;
+        }
+        return sample;
+    }
+
+    /**
+     * Serializes and deserializes every commit of SAMPLE.
+     * @param sample the commits.
+     * @return the time taken, in nanoseconds.
+     */
+    private static long runSerialization(Commit[] sample) {
+        long start = System.nanoTime();
+        for (Commit commit : sample) {
+            byte[] bytes = Utils.serialize(commit);
+            check(Utils.deserialize(bytes, Commit.class), commit);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Encodes and decodes every commit of SAMPLE.
+     * @param sample the commits.
+     * @return the time taken, in nanoseconds.
+     */
+    private static long runCodec(Commit[] sample) {
+        long start = System.nanoTime();
+        for (Commit commit : sample) {
+            byte[] bytes = Codec.encode(commit);
+            check(Codec.decodeCommit(bytes), commit);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Fails unless the commit COPY read back matches the commit ORIGINAL.
+     * @param copy the commit read back.
+     * @param original the commit written.
+     */
+    private static void check(Commit copy, Commit original) {
+        if (!copy.getID().equals(original.getID())
+                || copy.getCurrBlobs().size()
+                   != original.getCurrBlobs().size()) {
+            throw Utils.error("round trip of %s failed", original.getID());
+        }
+    }
+}
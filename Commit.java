@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 
 import static java.lang.System.getProperty;
@@ -14,6 +15,10 @@ import static java.lang.System.getProperty;
 
 public class Commit implements Serializable, Cloneable {
 
+    /** The serial version of this class, fixed so that the objects of
+     *  existing repositories stay readable as the class grows. */
+    private static final long serialVersionUID = 7666017531744715176L;
+
     /** The message of the commit. */
     private String _message;
     /** The date of the commit. */
@@ -22,10 +27,21 @@ public class Commit implements Serializable, Cloneable {
     private String _parent;
     /** The id of the commit. */
     private String _id;
-    /** The map representing its blobs. */
+    /** The map representing its blobs. Commits made before trees existed
+     *  keep it on disk; for the others it is filled in from the tree the
+     *  first time it is asked for. */
     private HashMap<String, String> currBlobs = new HashMap<>();
     /** Second parent after merge. */
     private String _secondParent = null;
+    /** The id of the root tree of the commit, or null for commits made
+     *  before trees existed. */
+    private String _tree;
+    /** The object store this commit was read from. */
+    private transient ObjectStore _store;
+    /** The weight of a commit in the object cache, besides its files. */
+    private static final int WEIGHT = 256;
+    /** The weight of one file of a commit in the object cache. */
+    private static final int FILE_WEIGHT = 160;
 
     /** The CWD file. */
     public static final File CWD = new File(getProperty("user.dir"));
@@ -53,6 +69,8 @@ public class Commit implements Serializable, Cloneable {
         this._date = "Wed Dec 31 16:00:00 1969 -0800";
         String idtext = msg + _parent + currBlobs.toString() + _date;
         _id = Utils.sha1(idtext);
+        _store = ObjectStore.local();
+        _tree = Tree.fromFiles(_store, currBlobs);
         writeCommit();
     }
 
@@ -71,26 +89,38 @@ public class Commit implements Serializable, Cloneable {
         ZonedDateTime date = ZonedDateTime.now();
         this._date = date.format(DateTimeFormatter.ofPattern(
                 "EEE MMM d HH:mm:ss yyyy Z", Locale.US));
-        currBlobs = getParentCommit().getCurrBlobs();
-        if (toAdd != null) {
-            for (String key : toAdd.keySet()) {
-                if (currBlobs.containsKey(key)) {
-                    currBlobs.put(key, toAdd.get(key));
-                } else {
-                    currBlobs.put(key, toAdd.get(key));
-                }
-            }
-        }
-        if (toRemove != null) {
-            for (String key : toRemove.keySet()) {
-                currBlobs.remove(key);
-            }
-        }
-        String idtext = msg + _parent + currBlobs.toString() + _date;
+        _store = ObjectStore.local();
+        _tree = Tree.apply(_store, getParentCommit().tree(),
+                toAdd == null ? new HashMap<>() : toAdd,
+                toRemove == null ? new HashSet<>() : toRemove.keySet());
+        currBlobs = null;
+        String idtext = msg + _parent + _tree + _date;
         _id = Utils.sha1(idtext);
         writeCommit();
     }
 
+    /**
+     * Constructor of a commit read back from disk. Nothing is written.
+     * @param id the id of the commit.
+     * @param msg the message of the commit.
+     * @param date the date of the commit.
+     * @param parent the id of the parent, or null.
+     * @param secondParent the id of the second parent, or null.
+     * @param tree the id of the root tree, or null.
+     * @param blobs the map of the blobs tracked by the commit, or null if
+     *              it has a tree.
+     */
+    Commit(String id, String msg, String date, String parent,
+           String secondParent, String tree, HashMap<String, String> blobs) {
+        _id = id;
+        _message = msg;
+        _date = date;
+        _parent = parent;
+        _secondParent = secondParent;
+        _tree = tree;
+        currBlobs = blobs;
+    }
+
     /**
      * Produces the string representing the commit in the log.
      * @return the string to be printed in the log.
@@ -108,8 +138,21 @@ public class Commit implements Serializable, Cloneable {
 
     /** Write the commit to disk. */
     public void writeCommit() {
-        Utils.writeObject(new File(COMMITFILE.toString()
-                + "/" + this.getID()), this);
+        writeCommit(ObjectStore.local());
+    }
+
+    /**
+     * Write the commit to the object store STORE.
+     * @param store the object store of the repository.
+     */
+    public void writeCommit(ObjectStore store) {
+        store.writeBytes(getID(), Codec.encode(this));
+        store.graph().add(this);
+        store.messages().add(_id, _message);
+        if (_store == store) {
+            ObjectCache.put(ObjectCache.commitKey(store, _id), this,
+                    weight());
+        }
     }
 
     /**
@@ -117,9 +160,60 @@ public class Commit implements Serializable, Cloneable {
      * @param id the id of the desired commit.
      * @return the requested commit object.
      */
-    public Commit readCommit(String id) {
-        return Utils.readObject(new File(
-                COMMITFILE.toString() + "/" + id), this.getClass());
+    public static Commit readCommit(String id) {
+        return readCommit(ObjectStore.local(), id);
+    }
+
+    /**
+     * Returns the commit of id ID in the object store STORE.
+     * @param store the object store of the repository.
+     * @param id the id of the desired commit.
+     * @return the requested commit object.
+     */
+    public static Commit readCommit(ObjectStore store, String id) {
+        String key = ObjectCache.commitKey(store, id);
+        Commit commit = ObjectCache.get(key);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] bytes = store.readBytes(id);
+        if (bytes != null && Codec.isEncoded(bytes, Codec.COMMIT)) {
+            commit = Codec.decodeCommit(bytes);
+        } else {
+            commit = store.read(id, ObjectStore.COMMITS, Commit.class);
+        }
+        commit._store = store;
+        ObjectCache.put(key, commit, commit.weight());
+        return commit;
+    }
+
+    /**
+     * Returns roughly how many bytes this commit holds, for the object
+     * cache.
+     * @return the weight.
+     */
+    private long weight() {
+        long weight = WEIGHT + 2L * (_message.length() + _date.length());
+        if (currBlobs != null) {
+            weight += (long) FILE_WEIGHT * currBlobs.size();
+        }
+        return weight;
+    }
+
+    /**
+     * Copies this commit, with its trees and blobs, to the object store TO.
+     * Trees TO already has are not looked into.
+     * @param to the object store receiving the commit.
+     */
+    public void copyTo(ObjectStore to) {
+        if (_tree != null) {
+            Tree.copy(store(), to, _tree);
+        } else {
+            for (String blobID : currBlobs.values()) {
+                Blob.copy(store(), to, blobID);
+            }
+        }
+        writeCommit(to);
     }
 
     /**
@@ -130,6 +224,14 @@ public class Commit implements Serializable, Cloneable {
         return this._message;
     }
 
+    /**
+     * returns the date of the commit.
+     * @return the date, as printed in the log.
+     */
+    public String getDate() {
+        return this._date;
+    }
+
     /**
      * get the other parent.
      * @return the second parent as a commit.
@@ -138,8 +240,7 @@ public class Commit implements Serializable, Cloneable {
         if (_secondParent == null) {
             return null;
         } else {
-            return Utils.readObject(new File(COMMITFILE.toString()
-                    + "/" + _secondParent), Commit.class);
+            return readCommit(_secondParent);
         }
     }
 
@@ -151,11 +252,26 @@ public class Commit implements Serializable, Cloneable {
         if (_parent == null) {
             return null;
         } else {
-            return Utils.readObject(new File(COMMITFILE.toString()
-                    + "/" + _parent), Commit.class);
+            return readCommit(_parent);
         }
     }
 
+    /**
+     * get the id of the parent commit.
+     * @return the id, or null for the initial commit.
+     */
+    public String getParentID() {
+        return _parent;
+    }
+
+    /**
+     * get the id of the other parent.
+     * @return the id, or null if this is not a merge commit.
+     */
+    public String getOtherParentID() {
+        return _secondParent;
+    }
+
     /**
      * Return the ID of this commit.
      * @return the ID.
@@ -169,6 +285,11 @@ public class Commit implements Serializable, Cloneable {
      * @return the hashmap of the blobs.
      */
     public HashMap<String, String> getCurrBlobs() {
+        if (currBlobs == null) {
+            currBlobs = Tree.flatten(store(), _tree);
+            ObjectCache.reweigh(ObjectCache.commitKey(store(), _id), this,
+                    weight());
+        }
         return currBlobs;
     }
 
@@ -177,7 +298,51 @@ public class Commit implements Serializable, Cloneable {
      * @return the hashmap of the blobs.
      */
     public HashMap<String, String> getBlobs() {
-        return currBlobs;
+        return getCurrBlobs();
+    }
+
+    /**
+     * Returns the object store this commit was read from. Commits kept
+     * inside the commit tree come from the local repository.
+     * @return the object store.
+     */
+    private ObjectStore store() {
+        if (_store == null) {
+            _store = ObjectStore.local();
+        }
+        return _store;
+    }
+
+    /**
+     * Returns the id of the root tree of this commit.
+     * @return the id of the tree, or null if the commit was made before
+     *         trees existed.
+     */
+    public String getTreeID() {
+        return _tree;
+    }
+
+    /**
+     * Returns the id of the root tree of this commit, writing the trees of
+     * its blobs first if it was made before trees existed.
+     * @return the id of the tree.
+     */
+    private String tree() {
+        if (_tree == null) {
+            return Tree.fromFiles(store(), currBlobs);
+        }
+        return _tree;
+    }
+
+    /**
+     * Returns the files that differ between this commit and OTHER. Only
+     * the directories that differ are looked into.
+     * @param other the other commit.
+     * @return the map from the paths that differ to their blob ids in
+     *         OTHER, or to null where OTHER does not have them.
+     */
+    public HashMap<String, String> diff(Commit other) {
+        return Tree.diff(store(), tree(), other.tree());
     }
 
     /**
@@ -0,0 +1,523 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The commit graph of a repository: for every commit, its parents, its
+ *  time and its generation number, kept apart from the commits themselves
+ *  so that walking the history reads a few bytes per commit instead of
+ *  whole commit objects. The generation of the initial commit is 1, and
+ *  that of any other commit is one more than the largest generation of
+ *  its parents.
+ *
+ *  The file, .gitlet/commit-graph, is memory-mapped. It holds the number
+ *  of commits, then one fixed-width entry per commit sorted by id: the
+ *  20-byte raw id, the positions of the two parents in the file (-1 for
+ *  none), the time in seconds and the generation. Commits written since
+ *  the file was last written are kept in memory, and the file is rewritten
+ *  with them through the write batch when the command ends. Commits that
+ *  are in neither, such as those of repositories made before the graph
+ *  existed, are read once and added.
+ *
+ *  Since the file is sorted by id, it also serves to find the commits
+ *  whose ids start with an abbreviation.
+ *  @author Yulin Li
+ */
+public class CommitGraph {
+
+    /** The name of the commit-graph file. */
+    static final String GRAPH_NAME = "commit-graph";
+    /** The position standing for no parent. */
+    private static final int NONE = -1;
+    /** The mark of the commits reached from the first commit of a merge
+     *  base search. */
+    private static final int FROM_A = 1;
+    /** The mark of the commits reached from the second one. */
+    private static final int FROM_B = 2;
+    /** The marks of the commits reached from both. */
+    private static final int BOTH = FROM_A | FROM_B;
+    /** The mark of the commits below a common ancestor. */
+    private static final int STALE = 4;
+    /** The length of the header of the file. */
+    private static final int HEADER = Integer.BYTES;
+    /** The offset of the positions of the parents in an entry. */
+    private static final int PARENTS = ObjectStore.ID_BYTES;
+    /** The offset of the time in an entry. */
+    private static final int TIME = PARENTS + 2 * Integer.BYTES;
+    /** The offset of the generation in an entry. */
+    private static final int GENERATION = TIME + Long.BYTES;
+    /** The length of an entry. */
+    private static final int ENTRY = GENERATION + Integer.BYTES;
+    /** The format of the dates of commits. */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+
+    /** The object store holding the commits of this graph. */
+    private final ObjectStore _store;
+    /** The commit-graph file. */
+    private final File _file;
+    /** The mapped file, or null if there is none. */
+    private MappedByteBuffer _map;
+    /** The number of entries in the file. */
+    private int _count;
+    /** The commits that are not in the file yet, keyed by id. */
+    private final HashMap<String, Node> _pending = new HashMap<>();
+
+    /** The graph entry of one commit. */
+    private static class Node {
+        /** The id of the parent, or null. */
+        private final String _parent;
+        /** The id of the second parent, or null. */
+        private final String _secondParent;
+        /** The time of the commit, in seconds. */
+        private final long _time;
+        /** The generation of the commit, or 0 until it is worked out. */
+        private int _generation;
+
+        /**
+         * An entry for a commit with parents PARENT and SECONDPARENT, made
+         * at TIME, of generation GENERATION.
+         * @param parent the id of the parent, or null.
+         * @param secondParent the id of the second parent, or null.
+         * @param time the time of the commit, in seconds.
+         * @param generation the generation of the commit, or 0.
+         */
+        Node(String parent, String secondParent, long time, int generation) {
+            _parent = parent;
+            _secondParent = secondParent;
+            _time = time;
+            _generation = generation;
+        }
+    }
+
+    /**
+     * The commit graph of the commits in STORE, kept in the file FILE.
+     * @param store the object store of the repository.
+     * @param file the commit-graph file.
+     */
+    CommitGraph(ObjectStore store, File file) {
+        _store = store;
+        _file = file;
+        if (_file.isFile()) {
+            try (FileChannel in = FileChannel.open(_file.toPath())) {
+                _map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                _count = _map.getInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the commit graph of the repository in the CWD.
+     * @return the graph.
+     */
+    public static CommitGraph local() {
+        return ObjectStore.local().graph();
+    }
+
+    /**
+     * Records the commit COMMIT, replacing what was recorded for it. Its
+     * generation is worked out when it is first needed, since the parents
+     * of a commit may be written after it, as push does.
+     * @param commit the commit.
+     */
+    public void add(Commit commit) {
+        _pending.put(commit.getID(), new Node(commit.getParentID(),
+                commit.getOtherParentID(), timeOf(commit.getDate()), 0));
+    }
+
+    /**
+     * Returns true if the commit ID is in the graph or in its object store.
+     * @param id the id of the commit.
+     * @return if the commit exists.
+     */
+    public boolean contains(String id) {
+        return _pending.containsKey(id) || position(id) >= 0
+            || _store.contains(id, ObjectStore.COMMITS);
+    }
+
+    /**
+     * Returns the ids of the commits that start with PREFIX, at most
+     * LIMIT of them, in order. The file is binary-searched for the first
+     * of them, so no commit is read.
+     * @param prefix the start of an id, in lower case.
+     * @param limit the most ids returned.
+     * @return the ids.
+     */
+    public List<String> withPrefix(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        if (_map != null) {
+            int lo = 0, hi = _count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (idAt(mid).compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int pos = lo; pos < _count && found.size() < limit;
+                 pos += 1) {
+                String id = idAt(pos);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                found.add(id);
+            }
+        }
+        for (String id : _pending.keySet()) {
+            if (id.startsWith(prefix)) {
+                found.add(id);
+            }
+        }
+        List<String> ids = new ArrayList<>(found);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    /**
+     * Returns the id of the parent of the commit ID.
+     * @param id the id of the commit.
+     * @return the id of its parent, or null for the initial commit.
+     */
+    public String parent(String id) {
+        Node node = _pending.get(id);
+        if (node != null) {
+            return node._parent;
+        }
+        int pos = position(id);
+        if (pos < 0) {
+            return load(id)._parent;
+        }
+        return idAt(_map.getInt(offset(pos) + PARENTS));
+    }
+
+    /**
+     * Returns the id of the second parent of the commit ID.
+     * @param id the id of the commit.
+     * @return the id of its second parent, or null if it is not a merge.
+     */
+    public String otherParent(String id) {
+        Node node = _pending.get(id);
+        if (node != null) {
+            return node._secondParent;
+        }
+        int pos = position(id);
+        if (pos < 0) {
+            return load(id)._secondParent;
+        }
+        return idAt(_map.getInt(offset(pos) + PARENTS + Integer.BYTES));
+    }
+
+    /**
+     * Returns the time of the commit ID.
+     * @param id the id of the commit.
+     * @return the time, in seconds.
+     */
+    public long time(String id) {
+        Node node = _pending.get(id);
+        if (node != null) {
+            return node._time;
+        }
+        int pos = position(id);
+        if (pos < 0) {
+            return load(id)._time;
+        }
+        return _map.getLong(offset(pos) + TIME);
+    }
+
+    /**
+     * Returns the generation of the commit ID.
+     * @param id the id of the commit.
+     * @return the generation.
+     */
+    public int generation(String id) {
+        Node node = _pending.get(id);
+        if (node == null) {
+            int pos = position(id);
+            if (pos >= 0) {
+                return _map.getInt(offset(pos) + GENERATION);
+            }
+            node = load(id);
+        }
+        if (node._generation == 0) {
+            computeGeneration(id);
+        }
+        return node._generation;
+    }
+
+    /**
+     * Returns the best common ancestors of the commits A and B: the
+     * commits that are ancestors of both, and not ancestors of another
+     * such commit. There is more than one only for criss-cross merges.
+     *
+     * Commits are visited from the highest generation down, from a
+     * priority queue, and each is marked with which of A and B reach it.
+     * A commit reached from both is a common ancestor, and everything
+     * below it is marked stale, as it can only be a worse one. The walk
+     * ends once only stale commits are left, so it never goes further
+     * back than the oldest best common ancestor.
+     * @param a the id of a commit.
+     * @param b the id of another commit.
+     * @return the ids of the best common ancestors, highest generation
+     *         and then latest first.
+     */
+    public List<String> mergeBases(String a, String b) {
+        if (a.equals(b)) {
+            return new ArrayList<>(List.of(a));
+        }
+        Comparator<String> order = Comparator
+            .comparingInt((String id) -> generation(id))
+            .thenComparingLong(this::time).reversed();
+        PriorityQueue<String> queue = new PriorityQueue<>(order);
+        HashMap<String, Integer> marks = new HashMap<>();
+        marks.put(a, FROM_A);
+        marks.put(b, FROM_B);
+        queue.add(a);
+        queue.add(b);
+        int active = 2;
+        ArrayList<String> bases = new ArrayList<>();
+        while (active > 0) {
+            String id = queue.poll();
+            int mark = marks.get(id);
+            if ((mark & STALE) == 0) {
+                active -= 1;
+            }
+            if ((mark & BOTH) == BOTH && (mark & STALE) == 0) {
+                bases.add(id);
+                mark |= STALE;
+                marks.put(id, mark);
+            }
+            for (String parent : new String[] {parent(id), otherParent(id)}) {
+                if (parent == null || !contains(parent)) {
+                    continue;
+                }
+                int old = marks.getOrDefault(parent, 0);
+                int updated = old | mark;
+                if (updated == old) {
+                    continue;
+                }
+                if (queue.remove(parent) && (old & STALE) == 0) {
+                    active -= 1;
+                }
+                marks.put(parent, updated);
+                queue.add(parent);
+                if ((updated & STALE) == 0) {
+                    active += 1;
+                }
+            }
+        }
+        bases.removeIf(base -> bases.stream().anyMatch(
+                other -> !other.equals(base) && isAncestor(base, other)));
+        bases.sort(order);
+        return bases;
+    }
+
+    /**
+     * Returns true if the commit ANCESTOR is an ancestor of the commit
+     * ID. If ID has a reachability bitmap, as the tips of branches do,
+     * that is a bit lookup; otherwise this walks back from ID no further
+     * than the generation of ANCESTOR.
+     * @param ancestor the id of the possible ancestor.
+     * @param id the id of the commit.
+     * @return if ANCESTOR is reachable from ID.
+     */
+    public boolean isAncestor(String ancestor, String id) {
+        BitmapIndex bitmaps = _store.bitmaps();
+        if (bitmaps.hasBitmap(id)) {
+            return bitmaps.isAncestor(ancestor, id);
+        }
+        int floor = generation(ancestor);
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.push(id);
+        while (!toVisit.isEmpty()) {
+            String curr = toVisit.pop();
+            if (curr.equals(ancestor)) {
+                return true;
+            }
+            if (!visited.add(curr) || generation(curr) <= floor) {
+                continue;
+            }
+            for (String parent
+                     : new String[] {parent(curr), otherParent(curr)}) {
+                if (parent != null && contains(parent)) {
+                    toVisit.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Works out the generation of the pending commit ID and of every
+     * pending ancestor of it whose generation is not known yet, parents
+     * first and without recursion. Parents missing from the store, as
+     * the second parents of merges pushed to a remote may be, are left
+     * out.
+     * @param id the id of the commit.
+     */
+    private void computeGeneration(String id) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            Node top = _pending.get(stack.peek());
+            int generation = 1;
+            String unknown = null;
+            for (String parent
+                     : new String[] {top._parent, top._secondParent}) {
+                if (parent == null) {
+                    continue;
+                }
+                Node node = _pending.get(parent);
+                if (node == null && position(parent) < 0) {
+                    if (!_store.contains(parent, ObjectStore.COMMITS)) {
+                        continue;
+                    }
+                    node = load(parent);
+                }
+                if (node != null && node._generation == 0) {
+                    unknown = parent;
+                } else {
+                    int known = node == null
+                        ? _map.getInt(offset(position(parent)) + GENERATION)
+                        : node._generation;
+                    generation = Math.max(generation, known + 1);
+                }
+            }
+            if (unknown == null) {
+                top._generation = generation;
+                stack.pop();
+            } else {
+                stack.push(unknown);
+            }
+        }
+    }
+
+    /**
+     * Reads the commit ID, missing from the graph, from the object store
+     * and adds it to the graph.
+     * @param id the id of the commit.
+     * @return the entry of the commit.
+     */
+    private Node load(String id) {
+        add(Commit.readCommit(_store, id));
+        return _pending.get(id);
+    }
+
+    /**
+     * Hands the graph, with the commits added since it was read, to the
+     * write batch if any were added.
+     */
+    void flush() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        TreeMap<String, Node> nodes = new TreeMap<>();
+        for (int pos = 0; pos < _count; pos += 1) {
+            int base = offset(pos);
+            nodes.put(idAt(pos), new Node(
+                    idAt(_map.getInt(base + PARENTS)),
+                    idAt(_map.getInt(base + PARENTS + Integer.BYTES)),
+                    _map.getLong(base + TIME),
+                    _map.getInt(base + GENERATION)));
+        }
+        for (String id : new ArrayList<>(_pending.keySet())) {
+            generation(id);
+        }
+        nodes.putAll(_pending);
+        HashMap<String, Integer> positions = new HashMap<>();
+        for (String id : nodes.keySet()) {
+            positions.put(id, positions.size());
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + nodes.size() * ENTRY);
+        out.putInt(nodes.size());
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+            out.put(ObjectStore.toRaw(entry.getKey()));
+            out.putInt(positions.getOrDefault(node._parent, NONE));
+            out.putInt(positions.getOrDefault(node._secondParent, NONE));
+            out.putLong(node._time);
+            out.putInt(node._generation);
+        }
+        WriteBatch.write(_file, out.array());
+    }
+
+    /**
+     * Returns the position of the commit ID in the file, or -1.
+     * @param id the id of the commit.
+     * @return the position.
+     */
+    private int position(String id) {
+        if (_map == null || id.length() != Utils.UID_LENGTH) {
+            return NONE;
+        }
+        byte[] raw = ObjectStore.toRaw(id);
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = 0;
+            int base = offset(mid);
+            for (int i = 0; i < ObjectStore.ID_BYTES && cmp == 0; i += 1) {
+                cmp = Integer.compare(_map.get(base + i) & 0xff,
+                        raw[i] & 0xff);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the id of the entry at position POS of the file.
+     * @param pos the position, or -1.
+     * @return the id, or null if POS is -1.
+     */
+    private String idAt(int pos) {
+        if (pos == NONE) {
+            return null;
+        }
+        byte[] raw = new byte[ObjectStore.ID_BYTES];
+        _map.get(offset(pos), raw);
+        return ObjectStore.fromRaw(raw);
+    }
+
+    /**
+     * Returns the offset of the entry at position POS of the file.
+     * @param pos the position.
+     * @return the offset.
+     */
+    private static int offset(int pos) {
+        return HEADER + pos * ENTRY;
+    }
+
+    /**
+     * Returns the time of a commit dated DATE.
+     * @param date the date as printed in the log.
+     * @return the time, in seconds.
+     */
+    static long timeOf(String date) {
+        return ZonedDateTime.parse(date, DATE_FORMAT).toEpochSecond();
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/** The ids of all the commits ever made in a repository, in the order they
+ *  were made, kept in .gitlet/commit-log as their raw bytes one after the
+ *  other. Making a commit only appends its id, through the write batch,
+ *  and the whole log is only read by the commands that need every commit.
+ *  @author Yulin Li
+ */
+public class CommitLog {
+
+    /** The name of the log file. */
+    static final String LOG_NAME = "commit-log";
+
+    /** The log file. */
+    private final File _file;
+    /** The ids in the log, or null until they are read. */
+    private ArrayList<String> _ids;
+
+    /**
+     * The commit log in the file FILE.
+     * @param file the log file.
+     */
+    CommitLog(File file) {
+        _file = file;
+    }
+
+    /**
+     * Returns the commit log of the repository in the CWD.
+     * @return the log.
+     */
+    public static CommitLog local() {
+        return new CommitLog(new File(Commit.MAINFILE, LOG_NAME));
+    }
+
+    /**
+     * Returns the ids in the log, oldest first. The list must not be
+     * changed.
+     * @return the ids.
+     */
+    public ArrayList<String> ids() {
+        if (_ids == null) {
+            _ids = new ArrayList<>();
+            if (WriteBatch.exists(_file)) {
+                byte[] bytes = WriteBatch.readContents(_file);
+                byte[] raw = new byte[ObjectStore.ID_BYTES];
+                for (int k = 0; k + raw.length <= bytes.length;
+                     k += raw.length) {
+                    System.arraycopy(bytes, k, raw, 0, raw.length);
+                    _ids.add(ObjectStore.fromRaw(raw));
+                }
+            }
+        }
+        return _ids;
+    }
+
+    /**
+     * Returns the id of the first commit of the log, the initial commit,
+     * reading nothing else.
+     * @return the id, or null if the log is empty.
+     */
+    public String first() {
+        if (_ids != null || !_file.isFile()) {
+            return ids().isEmpty() ? null : ids().get(0);
+        }
+        try (RandomAccessFile in = new RandomAccessFile(_file, "r")) {
+            byte[] raw = new byte[ObjectStore.ID_BYTES];
+            in.readFully(raw);
+            return ObjectStore.fromRaw(raw);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Adds the commit ID at the end of the log.
+     * @param id the id of the commit.
+     */
+    public void append(String id) {
+        WriteBatch.append(_file, ObjectStore.toRaw(id));
+        if (_ids != null) {
+            _ids.add(id);
+        }
+    }
+
+    /**
+     * Replaces the log by the ids IDS, in order.
+     * @param ids the ids.
+     */
+    void write(ArrayList<String> ids) {
+        byte[] bytes = new byte[ids.size() * ObjectStore.ID_BYTES];
+        for (int k = 0; k < ids.size(); k += 1) {
+            System.arraycopy(ObjectStore.toRaw(ids.get(k)), 0, bytes,
+                    k * ObjectStore.ID_BYTES, ObjectStore.ID_BYTES);
+        }
+        WriteBatch.write(_file, bytes);
+        _ids = new ArrayList<>(ids);
+    }
+}
@@ -1,32 +1,62 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
 
 import static java.lang.System.getProperty;
 
 /** Class representing the current commit tree.
+ *
+ *  Its state is kept in separate files of .gitlet, each read the first time
+ *  a command needs it and written back only if the command changed it:
+ *  the branches, HEAD naming the current branch, the remotes, and the
+ *  commit log of every commit ever made. Repositories made before hold
+ *  all of it in one serialized commit tree, .gitlet/mainTree, which is
+ *  still read once to split it up.
  *  @author Yulin Li
  */
 
 public class CommitTree implements Serializable {
+
+    /** The serial version of this class, fixed so that the objects of
+     *  existing repositories stay readable as the class grows. */
+    private static final long serialVersionUID = 3969088899547313338L;
     /** The map representing the branches ever made and the corresponding
-     * head commit's ID for that branch.*/
+     * head commit's ID for that branch, or null until it is read.*/
     private HashMap<String, String> branches;
-    /** The list of all the commits ever made, stored by their ID. */
+    /** The list of all the commits ever made, stored by their ID. Only set
+     * in the commit trees of old repositories; see commitLog(). */
     private ArrayList<String> allCommits;
-    /** The unique ID of the head commit.*/
-    private String head;
-    /** The name of the current Branch. */
+    /** The name of the current Branch, or null until it is read. */
     private String currBranch;
-    /** The initial commit shared by every branch in the repository. */
-    private Commit initialCommit;
-    /** The array list of all the commits in the given branch for merge.*/
-    private ArrayList<String> allCommitInOther = new ArrayList<>();
-    /** The found split commit. */
-    private Commit foundSplit;
+    /** The commit log of the repository, or null until it is opened. */
+    private transient CommitLog commitLog;
+    /** True if the branches changed since they were read. */
+    private transient boolean branchesDirty;
+    /** True if the current branch changed since it was read. */
+    private transient boolean headDirty;
+    /** True if the remotes changed since they were read. */
+    private transient boolean remotesDirty;
 
     /** The CWD file. */
     public static final File CWD = new File(getProperty("user.dir"));
@@ -45,6 +75,12 @@ public class CommitTree implements Serializable {
     /** The branches file. */
     private static File branchesFile = new File(
             MAINFILE.toString() + "/" + "branches");
+    /** The file naming the current branch. */
+    static final File HEAD_FILE = new File(MAINFILE, "HEAD");
+    /** The remotes file. */
+    static final File REMOTES_FILE = new File(MAINFILE, "remotes");
+    /** The file of the serialized commit tree of old repositories. */
+    static final File LEGACY_FILE = new File(MAINFILE, "mainTree");
 
     /** The constructor of the CommitTree class.*/
     public CommitTree() {
@@ -63,14 +99,15 @@ public class CommitTree implements Serializable {
         Stage mainStage = new Stage();
         mainStage.writeStage();
         Commit initial = new Commit("initial commit", null);
-        initialCommit = initial;
-        allCommits = new ArrayList<>();
-        allCommits.add(initial.getID());
+        commitLog().append(initial.getID());
         branches = new HashMap<String, String>();
         branches.put("master", initial.getID());
         currBranch = "master";
-        head = initial.getID();
-        Utils.writeObject(branchesFile, branches);
+        remotes = new HashMap<>();
+        branchesDirty = true;
+        headDirty = true;
+        remotesDirty = true;
+        Migration.markCurrent();
     }
 
     /**
@@ -81,43 +118,199 @@ public class CommitTree implements Serializable {
         COMMITFILE.mkdir();
         BLOBFILE.mkdir();
         STAGEFILE.mkdir();
+        ObjectStore.local().makeDir();
     }
 
-    /** Adds a copy of a certain file to the staging area to be added.
-     * @param fileName the name of the file being added */
-    public void add(String fileName) {
+    /** Adds copies of the files named by PATHS to the staging area to be
+     * added. A path names a file, every file under a directory, or, if it
+     * has any of *?[{, the files whose paths match it as a glob. If any
+     * path names no file, nothing is added. The files are hashed in
+     * parallel, through the stat data of the stage, and the stage is
+     * written once.
+     * @param paths the paths of the files being added */
+    public void add(String... paths) {
         Stage mainStage = Stage.readStage("mainStage");
-        mainStage.getRemovingStage().remove(fileName);
-        File fileToAdd = new File(fileName);
-        if (!fileToAdd.exists()) {
-            System.out.println("File does not exist.");
-            return;
+        TreeSet<String> fileNames = new TreeSet<>();
+        List<String> workingFiles = null;
+        for (String path : paths) {
+            File fileToAdd = new File(CWD, nameOf(path));
+            List<String> found;
+            if (!isGlob(path) && !fileToAdd.isDirectory()) {
+                found = fileToAdd.isFile()
+                    ? List.of(nameOf(path)) : List.of();
+            } else {
+                if (workingFiles == null) {
+                    workingFiles = workingFiles();
+                }
+                found = matching(path, workingFiles);
+            }
+            if (found.isEmpty()) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            fileNames.addAll(found);
         }
-        Blob thisBlob = new Blob(
-                fileName, Utils.readContentsAsString(fileToAdd));
-        Commit currCommit = getCurrCommit();
-        mainStage.getRemovingStage().remove(fileName);
-        mainStage.writeStage();
-        if (currCommit.getBlobs().containsValue(thisBlob.getID())) {
-            if (mainStage.getAddingStage().containsValue(thisBlob.getID())) {
+        HashMap<String, String> ids = Parallel.map(fileNames,
+                fileName -> mainStage.idOf(fileName,
+                        new File(CWD, fileName)));
+        HashMap<String, String> tracked = getCurrCommit().getBlobs();
+        for (String fileName : fileNames) {
+            String id = ids.get(fileName);
+            mainStage.getRemovingStage().remove(fileName);
+            if (id.equals(tracked.get(fileName))) {
                 mainStage.getAddingStage().remove(fileName);
-                mainStage.getRemovingStage().remove(fileName);
-                mainStage.writeStage();
+                continue;
             }
-            return;
+            Blob.fromFile(fileName, new File(CWD, fileName), id)
+                .writeBlob(ObjectStore.local(), tracked.get(fileName));
+            mainStage.addToAddingStage(fileName, id);
         }
-        thisBlob.writeBlob();
-        mainStage.addToAddingStage(fileName, thisBlob.getID());
         mainStage.writeStage();
     }
 
+    /**
+     * Returns the name of the file at PATH, relative to the working
+     * directory, with its names separated by slashes.
+     * @param path the path of the file.
+     * @return the name, empty for the working directory itself.
+     */
+    private static String nameOf(String path) {
+        Path absolute = CWD.toPath().resolve(path).normalize();
+        return CWD.toPath().relativize(absolute).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns true if PATH is a glob.
+     * @param path the path.
+     * @return if it has any of the characters special to globs.
+     */
+    private static boolean isGlob(String path) {
+        return path.matches(".*[*?\\[{].*");
+    }
+
+    /**
+     * Returns the names among NAMES that PATH names: the name of PATH
+     * itself, the names under it if it is a directory, and the names
+     * matching it if it is a glob.
+     * @param path the path.
+     * @param names the names of files, relative to the working directory.
+     * @return the names named, in the order of NAMES.
+     */
+    private static List<String> matching(String path,
+                                         Collection<String> names) {
+        String name = nameOf(path);
+        PathMatcher glob = isGlob(path)
+            ? FileSystems.getDefault().getPathMatcher("glob:" + name)
+            : null;
+        ArrayList<String> found = new ArrayList<>();
+        for (String fileName : names) {
+            if (name.isEmpty() || fileName.equals(name)
+                    || fileName.startsWith(name + "/")
+                    || (glob != null && glob.matches(Path.of(fileName)))) {
+                found.add(fileName);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the names of every file of the working directory, outside
+     * of .gitlet.
+     * @return the names, relative to the working directory.
+     */
+    private static List<String> workingFiles() {
+        ArrayList<String> names = new ArrayList<>();
+        Path root = CWD.toPath();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(MAINFILE.toPath())
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        Path file, BasicFileAttributes attrs) {
+                    String name = root.relativize(file).toString()
+                        .replace(File.separatorChar, '/');
+                    if (attrs.isRegularFile() && !Checkout.isScratch(name)) {
+                        names.add(name);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return names;
+    }
+
     /**
      * Returns the current commit.
      * @return the current commit that the head is pointing to.
      */
     public Commit getCurrCommit() {
-        return Utils.readObject(new File(COMMITFILE.toString()
-                + "/" + head), Commit.class);
+        return Commit.readCommit(headID());
+    }
+
+    /**
+     * Returns the id of the head commit, the head of the current branch.
+     * @return the id.
+     */
+    private String headID() {
+        return branches().get(currBranch());
+    }
+
+    /**
+     * Returns the branches, reading them if this command has not yet.
+     * @return the map from branch names to the ids of their heads.
+     */
+    private HashMap<String, String> branches() {
+        if (branches == null) {
+            branches = Codec.readBranches(branchesFile);
+        }
+        return branches;
+    }
+
+    /**
+     * Returns the name of the current branch, reading it if this command
+     * has not yet.
+     * @return the name.
+     */
+    private String currBranch() {
+        if (currBranch == null) {
+            currBranch = new String(WriteBatch.readContents(HEAD_FILE),
+                    StandardCharsets.UTF_8).trim();
+        }
+        return currBranch;
+    }
+
+    /**
+     * Returns the remotes, reading them if this command has not yet.
+     * @return the map from remote names to their .gitlet directories.
+     */
+    private HashMap<String, File> remotes() {
+        if (remotes == null) {
+            remotes = WriteBatch.exists(REMOTES_FILE)
+                ? Codec.decodeRemotes(WriteBatch.readContents(REMOTES_FILE))
+                : new HashMap<>();
+        }
+        return remotes;
+    }
+
+    /**
+     * Returns the log of every commit ever made in this repository.
+     * @return the log.
+     */
+    private CommitLog commitLog() {
+        if (commitLog == null) {
+            commitLog = CommitLog.local();
+        }
+        return commitLog;
     }
 
     /** Make a new commit.
@@ -140,40 +333,46 @@ public class CommitTree implements Serializable {
         Commit currCommit = getCurrCommit();
         Commit newCommit = new Commit(msg, currCommit.getID(),
                 mainStage.getAddingStage(), mainStage.getRemovingStage());
-        allCommits.add(newCommit.getID());
+        commitLog().append(newCommit.getID());
         mainStage.getAddingStage().clear();
         mainStage.getRemovingStage().clear();
-        branches.replace(currBranch, newCommit.getID());
-        Utils.writeObject(branchesFile, branches);
-        updateHead(currBranch);
+        branches().replace(currBranch(), newCommit.getID());
+        branchesDirty = true;
         mainStage.writeStage();
     }
 
     /**
-     * Updates HEAD to the latest commit ID of BRANCH.
-     * @param branch the name of the current branch.
-     */
-
-    public void updateHead(String branch) {
-        head = branches.get(branch);
-    }
-    /**
-     *Stages a file for removal.
-     * @param fileName the name of the file.
+     * Stages the files named by PATHS for removal, each named as for add
+     * but among the files tracked or staged rather than those of the
+     * working directory. A file staged for addition is only unstaged. If
+     * any path names no such file, nothing is removed. The stage is
+     * written once.
+     * @param paths the paths of the files.
      */
-    public void remove(String fileName) {
+    public void remove(String... paths) {
         Stage mainStage = Stage.readStage("mainStage");
-        if (mainStage.getAddingStage().containsKey(fileName)) {
-            mainStage.getAddingStage().remove(fileName);
-            mainStage.writeStage();
-        } else if (getCurrCommit().getBlobs().containsKey(fileName)) {
-            mainStage.getRemovingStage().put(
-                    fileName, getCurrCommit().getBlobs().get(fileName));
-            mainStage.writeStage();
-            new File(CWD.toString() + "/" + fileName).delete();
-        } else {
-            System.out.println("No reason to remove the file.");
+        HashMap<String, String> tracked = getCurrCommit().getBlobs();
+        TreeSet<String> known = new TreeSet<>(tracked.keySet());
+        known.addAll(mainStage.getAddingStage().keySet());
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            List<String> found = matching(path, known);
+            if (found.isEmpty()) {
+                System.out.println("No reason to remove the file.");
+                return;
+            }
+            fileNames.addAll(found);
+        }
+        for (String fileName : fileNames) {
+            if (mainStage.getAddingStage().containsKey(fileName)) {
+                mainStage.getAddingStage().remove(fileName);
+            } else {
+                mainStage.getRemovingStage().put(
+                        fileName, tracked.get(fileName));
+                new File(CWD, fileName).delete();
+            }
         }
+        mainStage.writeStage();
     }
 
     /**
@@ -196,9 +395,8 @@ public class CommitTree implements Serializable {
      * This is done through iterating everything in the allCommits arrayList.
      */
     public void globalLog() {
-        for (String currCommitStr : allCommits) {
-            Commit currCommit = Utils.readObject(new File(
-                    COMMITFILE.toString() + "/" + currCommitStr), Commit.class);
+        for (String currCommitStr : commitIDs()) {
+            Commit currCommit = Commit.readCommit(currCommitStr);
             System.out.println(currCommit.logString());
         }
     }
@@ -208,10 +406,7 @@ public class CommitTree implements Serializable {
      * @param currCommit the current commit.
      */
     public void printLog(Commit currCommit) {
-        while (currCommit.getParentCommit() != null) {
-            System.out.println(currCommit.logString());
-            currCommit = currCommit.getParentCommit();
-        }
+        printLog(currCommit.getID());
     }
 
     /**
@@ -219,12 +414,11 @@ public class CommitTree implements Serializable {
      * @param currCommitStr the current commit id.
      */
     public void printLog(String currCommitStr) {
-        Commit currCommit = Utils.readObject(new File(
-                COMMITFILE.toString()
-                        + "/" + currCommitStr), Commit.class);
-        while (currCommit.getParentCommit() != null) {
-            System.out.println(currCommit.logString());
-            currCommit = currCommit.getParentCommit();
+        CommitGraph graph = CommitGraph.local();
+        String id = currCommitStr;
+        while (graph.parent(id) != null) {
+            System.out.println(Commit.readCommit(id).logString());
+            id = graph.parent(id);
         }
     }
 
@@ -232,7 +426,8 @@ public class CommitTree implements Serializable {
      * Prints the log of the initial commit.
      */
     public void printInitial() {
-        System.out.println(initialCommit.logString());
+        System.out.println(
+                Commit.readCommit(commitLog().first()).logString());
     }
 
 
@@ -242,25 +437,45 @@ public class CommitTree implements Serializable {
      */
     public void find(String msg) {
         if (msg.equals("initial commit")) {
-            System.out.println(initialCommit.getID());
+            System.out.println(commitLog().first());
         } else {
-            boolean found = false;
-            for (String currCommitStr : allCommits) {
-                Commit currCommit = Utils.readObject(new File(
-                        COMMITFILE.toString()
-                                + "/" + currCommitStr), Commit.class);
-                if (currCommit.getMsg().equals(msg)) {
-                    System.out.println(currCommit.getID());
-                    found = true;
-                }
-            }
-            if (!found) {
-                System.out.println("Found no commit with that message.");
-            }
+            printFound(MessageIndex.local().withMessage(msg));
         }
         System.out.println();
     }
 
+    /**
+     * Prints the IDs of the commits whose message has the word WORD,
+     * whatever its case.
+     * @param word the word to look for.
+     */
+    public void findWord(String word) {
+        printFound(MessageIndex.local().withWord(word));
+        System.out.println();
+    }
+
+    /**
+     * Prints the IDs of the commits whose message contains TEXT.
+     * @param text the text to look for.
+     */
+    public void findText(String text) {
+        printFound(MessageIndex.local().containing(text));
+        System.out.println();
+    }
+
+    /**
+     * Prints the commit IDS one per line, or that none was found.
+     * @param ids the ids of the commits found.
+     */
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
+            System.out.println("Found no commit with that message.");
+        }
+        for (String id : ids) {
+            System.out.println(id);
+        }
+    }
+
     /**
      * prints the status of the current commit tree.
      */
@@ -268,8 +483,9 @@ public class CommitTree implements Serializable {
         printBranches();
         printAddingStaged();
         printRemovedStage();
-        printModi();
-        printUntracked();
+        Watcher watcher = Watcher.query();
+        printModi(watcher);
+        printUntracked(watcher);
     }
 
     /**
@@ -278,10 +494,10 @@ public class CommitTree implements Serializable {
     public void printBranches() {
         System.out.println("=== Branches ===");
         ArrayList<String> branchNames =
-                new ArrayList<String>(branches.keySet());
+                new ArrayList<String>(branches().keySet());
         branchNames = orderedList(branchNames);
         for (String str : branchNames) {
-            if (str.equals(currBranch)) {
+            if (str.equals(currBranch())) {
                 System.out.println("*" + str);
             } else {
                 System.out.println(str);
@@ -291,48 +507,57 @@ public class CommitTree implements Serializable {
     }
 
     /**
-     * prints the modified files.
+     * prints the modified files, looking only at those that WATCHER saw
+     * change if it knows.
+     * @param watcher what changed since status last ran.
      */
-    public void printModi() {
+    public void printModi(Watcher watcher) {
         Stage mainStage = Stage.readStage("mainStage");
+        HashMap<String, String> tracked = getCurrCommit().getBlobs();
+        HashSet<String> names = new HashSet<>(tracked.keySet());
+        names.addAll(mainStage.getAddingStage().keySet());
+        names.remove(".gitlet");
+        HashMap<String, String> ids = Parallel.map(names, fileName -> {
+            if (!watcher.changed(fileName)) {
+                String known = mainStage.knownID(fileName);
+                if (known != null) {
+                    return known;
+                }
+            }
+            File thisFile = new File(CWD.toString() + "/" + fileName);
+            if (!thisFile.exists()) {
+                return null;
+            }
+            return mainStage.idOf(fileName, thisFile);
+        });
+        TreeSet<String> deleted = new TreeSet<>();
+        TreeSet<String> modified = new TreeSet<>();
         for (String fileName : mainStage.getAddingStage().keySet()) {
-            File thisFile = new File(CWD.toString()
-                    + "/" + fileName);
-            if (!thisFile.exists() && !fileName.equals(".gitlet")
-                    && !fileName.equals("branches")) {
+            if (fileName.equals(".gitlet") || fileName.equals("branches")) {
+                continue;
+            } else if (!ids.containsKey(fileName)) {
                 deleted.add(fileName);
-            } else {
-                Blob thisBlob = Blob.readBlob(
-                        mainStage.getAddingStage().get(fileName));
-                if (!thisBlob.getContent().equals(
-                        Utils.readContentsAsString(thisFile))) {
-                    if (!fileName.equals(".gitlet")
-                            && !fileName.equals("branches")) {
-                        modified.add(fileName);
-                    }
-                }
+            } else if (!mainStage.getAddingStage().get(fileName).equals(
+                    ids.get(fileName))) {
+                modified.add(fileName);
             }
         }
-        for (String fileName : getCurrCommit().getBlobs().keySet()) {
-            if (!mainStage.getRemovingStage().containsKey(fileName)
-                    && !fileName.equals(".gitlet")
-                    && !new File(CWD.toString()
-                    + "/" + fileName).exists()) {
+        for (String fileName : tracked.keySet()) {
+            if (fileName.equals(".gitlet")) {
+                continue;
+            } else if (!mainStage.getRemovingStage().containsKey(fileName)
+                    && !ids.containsKey(fileName)) {
                 deleted.add(fileName);
-            } else {
-                if (!mainStage.getAddingStage().containsKey(fileName)
-                        && !fileName.equals(".gitlet")) {
-                    File thisFile = new File(CWD.toString()
-                            + "/" + fileName);
-                    Blob thisBlob = Blob.readBlob(
-                            getCurrCommit().getBlobs().get(fileName));
-                    if (thisFile.exists() && !thisBlob.getContent().equals(
-                            Utils.readContentsAsString(thisFile))) {
-                        modified.add(fileName);
-                    }
-                }
+            } else if (!mainStage.getAddingStage().containsKey(fileName)
+                    && ids.containsKey(fileName)
+                    && !tracked.get(fileName).equals(ids.get(fileName))) {
+                modified.add(fileName);
             }
         }
+        for (String fileName : deleted) {
+            mainStage.forget(fileName);
+        }
+        mainStage.writeStage();
         System.out.println("=== Modifications Not Staged For Commit ===");
         for (String str : deleted) {
             System.out.println(str + " (deleted)\n");
@@ -343,30 +568,28 @@ public class CommitTree implements Serializable {
         if (deleted.isEmpty() && modified.isEmpty()) {
             System.out.println();
         }
-        deleted.clear();
-        modified.clear();
     }
 
-    /**The array list of all the deleted files for the modified section
-     * of status. */
-    private ArrayList<String> deleted = new ArrayList<>();
-
-    /**The array list of all the deleted files for the modified section
-     * of status. */
-    private ArrayList<String> modified = new ArrayList<>();
-
     /**
-     * prints the untracked files.
+     * prints the untracked files, looking only at those that WATCHER saw
+     * change if it knows.
+     * @param watcher what changed since status last ran.
      */
-    public void printUntracked() {
-        String[] allFileNames = CWD.list();
-        ArrayList<String> untracked = new ArrayList<>();
+    public void printUntracked(Watcher watcher) {
+        List<String> allFileNames = watcher.workingFiles();
+        if (allFileNames == null) {
+            allFileNames = workingFiles();
+        }
+        watcher.save(allFileNames);
+        TreeSet<String> untracked = new TreeSet<>();
         Stage mainStage = Stage.readStage("mainStage");
+        HashMap<String, String> tracked = getCurrCommit().getBlobs();
         for (String fileName : allFileNames) {
-            if (!getCurrCommit().getBlobs().containsKey(fileName)
+            if (!tracked.containsKey(fileName)
                     && !mainStage.getAddingStage().containsKey(fileName)) {
                 if (!fileName.equals(".gitlet")
-                        && !fileName.equals("branches")) {
+                        && !fileName.equals("branches")
+                        && !Checkout.isScratch(fileName)) {
                     untracked.add(fileName);
                 }
             }
@@ -378,7 +601,6 @@ public class CommitTree implements Serializable {
         if (untracked.isEmpty()) {
             System.out.println();
         }
-        untracked.clear();
     }
 
     /**
@@ -457,10 +679,9 @@ public class CommitTree implements Serializable {
         if (blobID == null) {
             System.out.println("File does not exist in that commit.");
         } else {
-            Blob thisBlob = Blob.readBlob(blobID);
-            File targetFile = new File(CWD.toString()
-                    + "/" + fileName);
-            Utils.writeContents(targetFile, thisBlob.getContent());
+            Checkout checkout = new Checkout(ObjectStore.local(), CWD);
+            checkout.write(fileName, blobID);
+            checkout.apply();
         }
     }
 
@@ -476,14 +697,13 @@ public class CommitTree implements Serializable {
      * @param branchName the name of the desired BRANCH.
      */
     public void checkoutBranch(String branchName) {
-        if (!branches.containsKey(branchName)) {
+        if (!branches().containsKey(branchName)) {
             System.out.println("No such branch exists.");
-        } else if (branchName.equals(currBranch)) {
+        } else if (branchName.equals(currBranch())) {
             System.out.println("No need to checkout the current branch.");
         } else {
-            String ckBranch = branches.get(branchName);
-            Commit ckCommit = Utils.readObject(new File(COMMITFILE.toString()
-                    + "/" + ckBranch), Commit.class);
+            String ckBranch = branches().get(branchName);
+            Commit ckCommit = Commit.readCommit(ckBranch);
             Commit currCommit = getCurrCommit();
             if (!checkOverRide(ckBranch)) {
                 System.out.println("There is an untracked file in the way; "
@@ -491,9 +711,7 @@ public class CommitTree implements Serializable {
             } else {
                 overrideCurrCommit(ckCommit, currCommit);
                 currBranch = branchName;
-                branches.replace(branchName, ckCommit.getID());
-                Utils.writeObject(branchesFile, branches);
-                head = ckCommit.getID();
+                headDirty = true;
             }
         }
     }
@@ -505,33 +723,31 @@ public class CommitTree implements Serializable {
      * @return if this is true.
      */
     public boolean checkOverRide(String ck) {
-        Commit ckCommit = Utils.readObject(new File(COMMITFILE.toString()
-                + "/" + ck), Commit.class);
-        Commit currCommit = getCurrCommit();
-        for (String fileNameCk : ckCommit.getBlobs().keySet()) {
-            if (!currCommit.getBlobs().containsKey(fileNameCk)
-                    && new File(CWD.toString()
-                    + "/" + fileNameCk).exists()) {
-                return false;
-            }
-        }
-        return true;
+        return checkOverRideCm(Commit.readCommit(ck));
     }
 
     /**
      * check if COMMIT ck includes tracks anything not in current commit
-     * but in current working directory.
+     * but in current working directory, or a file in a directory where
+     * the working directory has an untracked file.
      * @param ckCommit the commit of to check out.
      * @return if this is true.
      */
     public boolean checkOverRideCm(Commit ckCommit) {
-        Commit currCommit = getCurrCommit();
+        HashMap<String, String> tracked = getCurrCommit().getBlobs();
         for (String fileNameCk : ckCommit.getBlobs().keySet()) {
-            if (!currCommit.getBlobs().containsKey(fileNameCk)
-                    && new File(CWD.toString() + "/"
-                    + fileNameCk).exists()) {
+            if (!tracked.containsKey(fileNameCk)
+                    && new File(CWD, fileNameCk).exists()) {
                 return false;
             }
+            for (int slash = fileNameCk.lastIndexOf('/'); slash > 0;
+                 slash = fileNameCk.lastIndexOf('/', slash - 1)) {
+                String dir = fileNameCk.substring(0, slash);
+                if (!tracked.containsKey(dir)
+                        && new File(CWD, dir).isFile()) {
+                    return false;
+                }
+            }
         }
         return true;
     }
@@ -542,24 +758,29 @@ public class CommitTree implements Serializable {
      * @param fileName the name of the FILE we are trying to recover.
      */
     public void ckCommitFile(String cmID, String fileName) {
-        Commit foundCommit = null;
-        for (String branch : branches.keySet()) {
-            Commit currCommit = Utils.readObject(new File(COMMITFILE.toString()
-                    + "/" + branches.get(branch)), Commit.class);
-            while (currCommit.getParentCommit() != null) {
-                if (currCommit.getID().equals(cmID)
-                        || currCommit.getID().startsWith(cmID)) {
-                    foundCommit = currCommit;
-                    break;
-                }
-                currCommit = currCommit.getParentCommit();
-            }
+        String foundCommit = resolveID(cmID);
+        if (foundCommit != null) {
+            writeInCWD(fileName, Commit.readCommit(foundCommit));
         }
-        if (foundCommit == null) {
+    }
+
+    /**
+     * Returns the full id of the commit whose id starts with PREFIX, or
+     * prints why there is none and returns null.
+     * @param prefix the id of a commit, possibly abbreviated.
+     * @return the id, or null.
+     */
+    private String resolveID(String prefix) {
+        List<String> ids = CommitGraph.local().withPrefix(
+                prefix.toLowerCase(Locale.ROOT), 2);
+        if (ids.isEmpty()) {
             System.out.println("No commit with that id exists.");
-        } else {
-            writeInCWD(fileName, foundCommit);
+            return null;
+        } else if (ids.size() > 1) {
+            System.out.println("That commit id is ambiguous.");
+            return null;
         }
+        return ids.get(0);
     }
 
     /**
@@ -567,12 +788,11 @@ public class CommitTree implements Serializable {
      * @param branchName The name of the new branch to be added.
      */
     public void branch(String branchName) {
-        if (branches.containsKey(branchName)) {
+        if (branches().containsKey(branchName)) {
             System.out.println("A branch with that name already exists.");
         } else {
-            Commit currCommit = getCurrCommit();
-            branches.put(branchName, currCommit.getID());
-            Utils.writeObject(branchesFile, branches);
+            branches().put(branchName, headID());
+            branchesDirty = true;
         }
     }
 
@@ -581,12 +801,13 @@ public class CommitTree implements Serializable {
      * @param branchName the name of the branch to be removed.
      */
     public void rmBranch(String branchName) {
-        if (branchName.equals(currBranch)) {
+        if (branchName.equals(currBranch())) {
             System.out.println("Cannot remove the current branch.");
-        } else if (!branches.containsKey(branchName)) {
+        } else if (!branches().containsKey(branchName)) {
             System.out.println("A branch with that name does not exist.");
         } else {
-            branches.remove(branchName);
+            branches().remove(branchName);
+            branchesDirty = true;
         }
     }
 
@@ -595,50 +816,64 @@ public class CommitTree implements Serializable {
      * @param commitID the ID of the commit to reset to.
      */
     public void reset(String commitID) {
-        Commit ckCommit = null;
-        boolean found = false;
-        for (String id : allCommits) {
-            if (id.startsWith(commitID)
-                        || id.equals(commitID)) {
-                ckCommit = Utils.readObject(new File(
-                        COMMITFILE.toString() + "/" + id), Commit.class);
-                found = true;
-            }
-        }
-        if (!found) {
-            System.out.println("No commit with that id exists.");
-        } else {
+        String foundID = resolveID(commitID);
+        if (foundID != null) {
+            Commit ckCommit = Commit.readCommit(foundID);
             if (!checkOverRideCm(ckCommit)) {
                 System.out.println("There is an untracked file "
                         + "in the way; delete it, or add and commit it first.");
             } else {
                 Commit currCommit = getCurrCommit();
                 overrideCurrCommit(ckCommit, currCommit);
-                branches.put(currBranch, ckCommit.getID());
-                Utils.writeObject(branchesFile, branches);
-                head = ckCommit.getID();
+                branches().put(currBranch(), ckCommit.getID());
+                branchesDirty = true;
             }
         }
     }
 
     /**
-     * Deletes the Blobs of the currCommit and write the Blobs of the ckCommit
-     * into the Current Working Directory.
+     * Makes the working directory hold the files of ckCommit in place of
+     * those of currCommit, and clears the stage. Only the paths where the
+     * two commits differ, found by diffing their trees, are deleted or
+     * written, along with the paths they share whose working file was
+     * changed or deleted, which the stat data in the stage tells without
+     * reading the others. The files are written in parallel, and all of
+     * them or none; see Checkout.
      * @param ckCommit the commit being checked out.
      * @param currCommit the current commit.
      */
     private void overrideCurrCommit(Commit ckCommit, Commit currCommit) {
-        for (String fileName : currCommit.getBlobs().keySet()) {
-            new File(CWD.toString() + "/" + fileName).delete();
+        Stage mainStage = Stage.readStage("mainStage");
+        HashMap<String, String> changed = currCommit.diff(ckCommit);
+        HashMap<String, String> target = ckCommit.getBlobs();
+        ArrayList<String> shared = new ArrayList<>();
+        for (String fileName : target.keySet()) {
+            if (!changed.containsKey(fileName)) {
+                shared.add(fileName);
+            }
         }
-        for (String fileName : ckCommit.getBlobs().keySet()) {
-            String blobID = ckCommit.getBlobs().get(fileName);
-            Blob thisBlob = Blob.readBlob(blobID);
-            File targetFile = new File(CWD.toString()
-                    + "/" + fileName);
-            Utils.writeContents(targetFile, thisBlob.getContent());
+        HashMap<String, String> ids = Parallel.map(shared, fileName -> {
+            File thisFile = new File(CWD.toString() + "/" + fileName);
+            if (!thisFile.exists()) {
+                return null;
+            }
+            return mainStage.idOf(fileName, thisFile);
+        });
+        for (String fileName : shared) {
+            if (!target.get(fileName).equals(ids.get(fileName))) {
+                changed.put(fileName, target.get(fileName));
+            }
         }
-        Stage mainStage = Stage.readStage("mainStage");
+        Checkout checkout = new Checkout(ObjectStore.local(), CWD);
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+            if (entry.getValue() == null) {
+                checkout.delete(entry.getKey());
+            } else {
+                checkout.write(entry.getKey(), entry.getValue());
+            }
+            mainStage.forget(entry.getKey());
+        }
+        checkout.apply();
         mainStage.getAddingStage().clear();
         mainStage.getRemovingStage().clear();
         mainStage.writeStage();
@@ -658,10 +893,10 @@ public class CommitTree implements Serializable {
                 || !mainStage.getRemovingStage().isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return false;
-        } else if (!branches.containsKey(branchName)) {
+        } else if (!branches().containsKey(branchName)) {
             System.out.println("A branch with that name does not exist.");
             return false;
-        } else if (branchName.equals(currBranch)) {
+        } else if (branchName.equals(currBranch())) {
             System.out.println("Cannot merge a branch with itself.");
             return false;
         } else {
@@ -670,27 +905,26 @@ public class CommitTree implements Serializable {
     }
 
     /**
-     * Check is this merge is legit.
+     * Check is this merge is legit: that neither head is an ancestor of
+     * the other, which the reachability bitmaps of the two heads tell. If
+     * the current head is an ancestor of the given one, the current branch
+     * is fast-forwarded instead.
      * @param current the current commit.
      * @param given the given commit.
-     * @param split the split commit.
      * @param givenBranchName the name of the given branch.
      * @return if this is a legit merge.
      */
     private boolean isLegitCommit(Commit current, Commit given,
-                                  Commit split, String givenBranchName) {
-        if (split.getID().equals(given.getID())) {
+                                  String givenBranchName) {
+        BitmapIndex bitmaps = BitmapIndex.local();
+        if (bitmaps.isAncestor(given.getID(), current.getID())) {
             System.out.println("Given branch is an "
                     + "ancestor of the current branch.");
             return false;
-        } else if (split.equals(current)) {
+        } else if (bitmaps.isAncestor(current.getID(), given.getID())) {
             checkoutBranch(givenBranchName);
             System.out.println("Current branch fast-forwarded.");
             return false;
-        } else if (!checkOverRideCm(split)) {
-            System.out.println("There is an untracked file in the way; "
-                    + "delete it, or add and commit it first.");
-            return false;
         } else {
             return true;
         }
@@ -706,59 +940,67 @@ public class CommitTree implements Serializable {
             return;
         }
         Commit current = getCurrCommit();
-        Commit given =  Utils.readObject(new File(COMMITFILE.toString()
-                + "/" + branches.get(givenBranchName)), Commit.class);
+        Commit given = Commit.readCommit(branches().get(givenBranchName));
         if (!checkOverRideCm(given)) {
             System.out.println("There is an untracked file in the way; "
                     + "delete it, or add and commit it first.");
             return;
         }
+        if (!isLegitCommit(current, given, givenBranchName)) {
+            return;
+        }
         Commit split = findSplitRecur(current, given);
-        if (!isLegitCommit(current, given, split, givenBranchName)) {
+        if (!checkOverRideCm(split)) {
+            System.out.println("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
             return;
         }
-        for (String currFileName : current.getBlobs().keySet()) {
+        Checkout checkout = new Checkout(ObjectStore.local(), CWD);
+        // Only files changed on either side since the split need merging.
+        HashSet<String> changed = new HashSet<>(split.diff(current).keySet());
+        changed.addAll(split.diff(given).keySet());
+        for (String currFileName : changed) {
             String currFile = current.getBlobs().get(currFileName);
+            if (currFile == null) {
+                continue;
+            }
             String givenFile = given.getBlobs().get(currFileName);
             String splitFile = split.getBlobs().get(currFileName);
             if (currFile.equals(splitFile)) {
                 if (givenFile == null) {
-                    File target = new File(CWD.toString()
-                            + "/" + currFileName);
-                    target.delete();
+                    checkout.delete(currFileName);
                     mainStage.getRemovingStage().put(currFileName, currFile);
                 } else if (!givenFile.equals(splitFile)) {
-                    ckCommitFile(given.getID(), currFileName);
+                    checkout.write(currFileName, givenFile);
                     mainStage.addToAddingStage(currFileName, givenFile);
                 }
             } else if (!currFile.equals(givenFile) && splitFile != null) {
-                String givencontent = "";
+                byte[] givencontent = new byte[0];
                 if (givenFile != null) {
                     givencontent = Blob.readBlob(givenFile).getContent();
                 }
-                String content = conGiven(currFile, givenFile, givencontent);
-                isConflict = makeCon(mainStage, currFileName, content);
+                byte[] content = conGiven(currFile, givenFile, givencontent);
+                isConflict = makeCon(mainStage, checkout, currFileName,
+                        content);
             }
         }
-        for (String givenFileName : given.getBlobs().keySet()) {
-            String splitFile = split.getBlobs().get(givenFileName);
-            String currFile = current.getBlobs().get(givenFileName);
+        // Files the current commit has were all handled above; writing a
+        // conflict for them here would undo the given side's changes.
+        for (String givenFileName : changed) {
             String givenFile = given.getBlobs().get(givenFileName);
-            if (split.getBlobs().get(givenFileName) == null
+            if (givenFile != null
+                    && split.getBlobs().get(givenFileName) == null
                     && current.getBlobs().get(givenFileName) == null) {
-                ckCommitFile(given.getID(), givenFileName);
-                mainStage.addToAddingStage(givenFileName,
-                        given.getBlobs().get(givenFileName));
-            } else if (currFile != null && !currFile.equals(givenFile)
-                    && splitFile != null) {
-                String content = makeContent(currFile, givenFile);
-                isConflict = makeCon(mainStage, givenFileName, content);
+                checkout.write(givenFileName, givenFile);
+                mainStage.addToAddingStage(givenFileName, givenFile);
             }
         }
-        String msg = "Merged " + givenBranchName + " into " + currBranch + ".";
+        checkout.apply();
+        String msg = "Merged " + givenBranchName + " into "
+                + currBranch() + ".";
         makeNewCommit(msg, getCurrCommit().getID(),
                 mainStage.getAddingStage(), mainStage.getRemovingStage(),
-                currBranch, given, isConflict, mainStage);
+                currBranch(), given, isConflict, mainStage);
     }
 
     /**
@@ -767,11 +1009,8 @@ public class CommitTree implements Serializable {
      * @param given the given commit file.
      * @return the content for the merge file.
      */
-    public String makeContent(String curr, String given) {
-        String result = "<<<<<<< HEAD\n"
-                + Blob.readBlob(curr).getContent() + "=======\n"
-                + Blob.readBlob(given).getContent() + ">>>>>>>\n";
-        return result;
+    public byte[] makeContent(String curr, String given) {
+        return conGiven(curr, given, Blob.readBlob(given).getContent());
     }
 
     /**
@@ -781,11 +1020,14 @@ public class CommitTree implements Serializable {
      * @param content given content.
      * @return content of the merge file.
      */
-    public String conGiven(String curr, String given, String content) {
-        String result = "<<<<<<< HEAD\n"
-                + Blob.readBlob(curr).getContent()
-                + "=======\n" + content + ">>>>>>>\n";
-        return result;
+    public byte[] conGiven(String curr, String given, byte[] content) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        result.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        result.writeBytes(Blob.readBlob(curr).getContent());
+        result.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+        result.writeBytes(content);
+        result.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        return result.toByteArray();
     }
 
     /**
@@ -831,105 +1073,55 @@ public class CommitTree implements Serializable {
     public void finishCommit(Commit cm, Commit given, String branch) {
         cm.addParent(given.getID());
         cm.writeCommit();
-        allCommits.add(cm.getID());
-        branches.replace(branch, cm.getID());
-        Utils.writeObject(branchesFile, branches);
-        head = cm.getID();
+        commitLog().append(cm.getID());
+        branches().replace(branch, cm.getID());
+        branchesDirty = true;
     }
 
     /**
-     * make the conflicted file.
+     * make the conflicted file, storing its content as a blob and leaving
+     * it to CHECKOUT to write, with the rest of the merge.
      * @param mainStage the stage.
+     * @param checkout the changes to the working directory.
      * @param currFileName the current file name.
      * @param content the content.
      * @return if it is a conflicted file.
      */
-    private boolean makeCon(Stage mainStage,
-                            String currFileName, String content) {
-        File conflictFile = new File(
-                CWD.toString() + "/" + currFileName);
-        Utils.writeContents(conflictFile, content);
-        Blob thisBlob = new Blob(currFileName,
-                Utils.readContentsAsString(conflictFile));
-        thisBlob.writeBlob();
+    private boolean makeCon(Stage mainStage, Checkout checkout,
+                            String currFileName, byte[] content) {
+        Blob thisBlob = Blob.fromContent(currFileName, content);
+        thisBlob.writeBlob(ObjectStore.local(),
+                getCurrCommit().getBlobs().get(currFileName));
+        checkout.write(currFileName, thisBlob.getID());
         mainStage.addToAddingStage(currFileName, thisBlob.getID());
         isConflict = true;
         return true;
     }
 
     /**
-     * Finds the last common ancestor for the two commits.
-     * @param current the current commit.
-     * @param given the given commit.
-     * @return the found commit.
-     */
-    public Commit findSplit(Commit current, Commit given) {
-        while (current.getParentCommit() != null) {
-            Commit givenPointer = given;
-            while (givenPointer.getParentCommit() != null) {
-                if (current.getID().equals(givenPointer.getID())) {
-                    return current;
-                }
-                givenPointer = givenPointer.getParentCommit();
-            }
-            current = current.getParentCommit();
-        }
-        return null;
-    }
-
-    /**
-     * Setting up the array list of all the commits in the given branch.
-     * @param given the head pointer of the given branch.
-     */
-    public void getAllCommits(Commit given) {
-        Commit givenPointer = given;
-        while (givenPointer.getParentCommit() != null) {
-            allCommitInOther.add(givenPointer.getID());
-            if (givenPointer.getOtherParent() != null) {
-                getAllCommits(givenPointer.getOtherParent());
-            }
-            givenPointer = givenPointer.getParentCommit();
-        }
-    }
-
-    /**
-     * A recursive function to find the given commit. Considering
-     * both the first and second parents.
+     * Finds the split point of a merge: the best common ancestor of the
+     * two commits, walking the commit graph by generation. Of several
+     * equally good ones, the latest is taken. If the history between
+     * them is incomplete, as in a remote that was pushed to, the initial
+     * commit is.
      * @param current the current commit.
      * @param given the given commit.
      * @return the found commit.
      */
     public Commit findSplitRecur(Commit current, Commit given) {
-        getAllCommits(given);
-        allCommitInOther.add(initialCommit.getID());
-        findSplitHelper(current, 0);
-        return foundSplit;
-    }
-
-    /**
-     * The tree-recursive function that helps find the split commit.
-     * @param curr the current commit.
-     * @param n the length of the path.
-     * @return the length of the path.
-     */
-    public int findSplitHelper(Commit curr, Integer n) {
-        if (curr == null) {
-            return n;
-        }
-        for (String str : allCommitInOther) {
-            if (curr.getID().equals(str)) {
-                foundSplit = curr;
-                return n;
-            }
+        List<String> bases = CommitGraph.local().mergeBases(
+                current.getID(), given.getID());
+        if (bases.isEmpty()) {
+            return Commit.readCommit(commitLog().first());
         }
-        return Math.min(findSplitHelper(curr.getParentCommit(), n + 1),
-                findSplitHelper(curr.getOtherParent(), n + 1));
+        return Commit.readCommit(bases.get(0));
     }
 
     /**
-     * The HashMap mapping the remote names to their path.
+     * The HashMap mapping the remote names to their path, or null until it
+     * is read.
      */
-    private HashMap<String, File> remotes = new HashMap<>();
+    private HashMap<String, File> remotes;
 
     /**
      * Adds a remote repository.
@@ -937,12 +1129,13 @@ public class CommitTree implements Serializable {
      * @param remoteDir the string for the path.
      */
     public void addRemote(String remoteName, String remoteDir) {
-        if (remotes.containsKey(remoteName)) {
+        if (remotes().containsKey(remoteName)) {
             System.out.println("A remote with that name already exists.");
             return;
         }
         String pathName = remoteDir.replace("/", java.io.File.separator);
-        remotes.put(remoteName, new File(pathName));
+        remotes().put(remoteName, new File(pathName));
+        remotesDirty = true;
     }
 
     /**
@@ -950,46 +1143,35 @@ public class CommitTree implements Serializable {
      * @param remoteName the name of the repository.
      */
     public void rmRemote(String remoteName) {
-        if (!remotes.containsKey(remoteName)) {
+        if (!remotes().containsKey(remoteName)) {
             System.out.println("A remote with that name does not exist.");
         } else {
-            remotes.remove(remoteName);
+            remotes().remove(remoteName);
+            remotesDirty = true;
         }
     }
 
     /**
      * pushes the local commits to the given branch of the given remote.
+     * The remote head must be an ancestor of the current head, which the
+     * reachability bitmap of the current head tells without a walk.
      * @param remoteName the name of the remote repo.
      * @param remoteBranch the name of the remote branch.
      */
     public void push(String remoteName, String remoteBranch) {
-        File remoteFile = remotes.get(remoteName);
+        File remoteFile = remotes().get(remoteName);
         if (!remoteFile.exists()) {
             System.out.println("Remote directory not found.");
             return;
         }
-        HashMap<String, String> something = new HashMap<String, String>();
-        HashMap remoteBranches =
-                Utils.readObject(new File(remoteFile.toString() + "/branches"),
-                        something.getClass());
-        Commit currPointer = getCurrCommit();
-        String remoteHeadStr = (String) remoteBranches.get(remoteBranch);
-        Commit remoteHead = Utils.readObject(new File(
-                remoteFile.toString()
-                        + "/.commits/" + remoteHeadStr), Commit.class);
-        boolean found = false;
-        while (currPointer.getParentCommit() != null) {
-            if (currPointer.getID().equals(remoteHead.getID())) {
-                found = true;
-                break;
-            } else {
-                currPointer = currPointer.getParentCommit();
-            }
-        }
-        if (found) {
-            appendCommits(remoteHead, remoteFile);
+        HashMap<String, String> remoteBranches =
+                Codec.readBranches(new File(remoteFile, "branches"));
+        String remoteHeadStr = remoteBranches.get(remoteBranch);
+        if (BitmapIndex.local().isAncestor(remoteHeadStr, headID())) {
+            appendCommits(Commit.readCommit(remoteHeadStr), remoteFile);
             File headFile = new File(remoteFile.toString() + "/head.txt");
-            Utils.writeContents(headFile, getCurrCommit().getID());
+            WriteBatch.write(headFile, getCurrCommit().getID()
+                    .getBytes(StandardCharsets.UTF_8));
         } else {
             System.out.println("Please pull down "
                     + "remote changes before pushing.");
@@ -998,50 +1180,61 @@ public class CommitTree implements Serializable {
 
     /**
      * Brings down commits from the remote Gitlet repository
-     * into the local Gitlet repository.
+     * into the local Gitlet repository. The history of the remote branch
+     * is walked back to the commits the local repository already has,
+     * and the missing ones are copied oldest first, so that a commit is
+     * only ever stored after its parents. How many objects were copied
+     * and skipped is reported on standard error.
      * @param remoteName the name of the remote.
      * @param remoteBranch the name of the remote branch.
      */
     public void fetch(String remoteName, String remoteBranch) {
-        File remoteFile = remotes.get(remoteName);
+        File remoteFile = remotes().get(remoteName);
         if (!remoteFile.exists()) {
             System.out.println("Remote directory not found.");
             return;
         }
-        HashMap remoteBranches =
-                Utils.readObject(new File(remoteFile.toString() + "/branches"),
-                        branches.getClass());
+        HashMap<String, String> remoteBranches =
+                Codec.readBranches(new File(remoteFile, "branches"));
         if (remoteBranches.get(remoteBranch) == null) {
             System.out.println("That remote does not have that branch.");
         } else {
-            String remoteHeadStr = (String) remoteBranches.get(remoteBranch);
-            Commit remoteHead = Utils.readObject(new File(
-                    remoteFile.toString()
-                            + "/.commits/" + remoteHeadStr), Commit.class);
+            String remoteHeadStr = remoteBranches.get(remoteBranch);
+            ObjectStore remoteStore = ObjectStore.open(remoteFile);
+            ObjectStore localStore = ObjectStore.local();
             String newBranch = remoteName + "/" + remoteBranch;
-            Commit remotePointer = remoteHead;
-            while (remotePointer.getParentCommit() != null) {
-                if (!allCommits.contains(remotePointer.getID())) {
-                    allCommits.add(remotePointer.getID());
-                    Utils.writeObject(new File(
-                                    COMMITFILE.toString() + "/"
-                                            + remotePointer.getID()),
-                            remotePointer);
-                    for (String id : remotePointer.getCurrBlobs().keySet()) {
-                        Blob thisBlob = Utils.readObject(new File(
-                                remoteFile.toString() + "/.blobs/"
-                                        + remotePointer.getCurrBlobs()
-                                        .get(id)), Blob.class);
-                        Utils.writeObject(
-                                new File(BLOBFILE.toString() + "/"
-                                        + thisBlob.getID()),
-                                thisBlob);
+            ArrayList<Commit> missing = new ArrayList<>();
+            HashSet<String> seen = new HashSet<>();
+            ArrayDeque<String> toVisit = new ArrayDeque<>();
+            toVisit.push(remoteHeadStr);
+            while (!toVisit.isEmpty()) {
+                String id = toVisit.pop();
+                if (!seen.add(id)
+                        || !localStore.wants(id, ObjectStore.COMMITS)) {
+                    continue;
+                }
+                Commit remotePointer = Commit.readCommit(remoteStore, id);
+                missing.add(remotePointer);
+                for (String parent : new String[] {
+                        remotePointer.getParentID(),
+                        remotePointer.getOtherParentID()}) {
+                    if (parent != null) {
+                        toVisit.push(parent);
                     }
                 }
-                remotePointer = remotePointer.getParentCommit();
             }
-            branches.put(newBranch, remoteHead.getID());
-            Utils.writeObject(branchesFile, branches);
+            CommitGraph remoteGraph = remoteStore.graph();
+            missing.sort(Comparator.comparingInt(
+                    commit -> remoteGraph.generation(commit.getID())));
+            for (Commit commit : missing) {
+                commit.copyTo(localStore);
+                commitLog().append(commit.getID());
+            }
+            branches().put(newBranch, remoteHeadStr);
+            branchesDirty = true;
+            System.err.printf("fetch: %d objects transferred, "
+                    + "%d already present%n", localStore.received(),
+                    localStore.skipped());
         }
     }
 
@@ -1058,47 +1251,108 @@ public class CommitTree implements Serializable {
     }
 
     /**
-     * Appends commits to the head at the given file.
+     * Appends commits to the head at the given file. The objects to copy
+     * are those reachable from the current head but not from the remote
+     * head, the difference of their reachability bitmaps; blobs are
+     * copied first, then trees, then commits oldest first, so that no
+     * object is stored before what it refers to.
      * @param remoteHead the commit pointed to by the remote head.
      * @param remoteFile the path of the remote repository.
      */
     public void appendCommits(Commit remoteHead, File remoteFile) {
-        Commit currPointer = this.getCurrCommit();
-        while (currPointer.getParentCommit() != null
-                && !currPointer.equals(remoteHead)) {
-            Utils.writeObject(new File(
-                            remoteFile.toString()
-                                    + "/.commits/" + currPointer.getID()),
-                    currPointer);
-            for (String id : currPointer.getCurrBlobs().keySet()) {
-                Blob thisBlob = Utils.readObject(new File(
-                        BLOBFILE.toString() + "/"
-                                + currPointer.getCurrBlobs()
-                                .get(id)), Blob.class);
-                Utils.writeObject(
-                        new File(remoteFile.toString()
-                                + "/.blobs/" + thisBlob.getID()),
-                        thisBlob);
+        ObjectStore localStore = ObjectStore.local();
+        ObjectStore remoteStore = ObjectStore.open(remoteFile);
+        CommitLog remoteLog =
+            new CommitLog(new File(remoteFile, CommitLog.LOG_NAME));
+        BitmapIndex bitmaps = localStore.bitmaps();
+        Bitmap missing = bitmaps.reach(headID())
+            .andNot(bitmaps.reach(remoteHead.getID()));
+        for (String blobID : bitmaps.ids(missing, BitmapIndex.BLOB)) {
+            Blob.copy(localStore, remoteStore, blobID);
+        }
+        for (String treeID : bitmaps.ids(missing, BitmapIndex.TREE)) {
+            if (remoteStore.wants(treeID)) {
+                remoteStore.writeBytes(treeID, localStore.readBytes(treeID));
+            }
+        }
+        List<String> commits = bitmaps.ids(missing, BitmapIndex.COMMIT);
+        CommitGraph graph = localStore.graph();
+        commits.sort(Comparator.comparingInt(graph::generation));
+        for (String commitID : commits) {
+            if (remoteStore.wants(commitID, ObjectStore.COMMITS)) {
+                Commit.readCommit(commitID).writeCommit(remoteStore);
+                remoteLog.append(commitID);
             }
-            currPointer = currPointer.getParentCommit();
         }
     }
 
     /**
-     * write the commit tree to disk.
+     * write the parts of the commit tree this command changed to disk.
      */
     public void writeCommitTree() {
-        Utils.writeObject(new File(MAINFILE.toString()
-                + "/" + "mainTree"), this);
+        if (branchesDirty) {
+            Codec.writeBranches(branchesFile, branches);
+            branchesDirty = false;
+        }
+        if (headDirty) {
+            WriteBatch.write(HEAD_FILE, (currBranch + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            headDirty = false;
+        }
+        if (remotesDirty) {
+            WriteBatch.write(REMOTES_FILE, Codec.encodeRemotes(remotes));
+            remotesDirty = false;
+        }
     }
 
     /**
-     * Read out the commit tree.
-     * @param fileName the name of the tree.
+     * Read out the commit tree. Nothing is read until it is needed, except
+     * for old repositories, whose serialized tree is read and split up.
+     * @param fileName the name of the tree of old repositories.
      * @return the commit tree related to the name.
      */
     public static CommitTree readCommitTree(String fileName) {
-        return Utils.readObject(new File(MAINFILE.toString()
-                + "/" + fileName), CommitTree.class);
+        File legacy = new File(MAINFILE, fileName);
+        if (!legacy.isFile()) {
+            CommitTree tree = new CommitTree();
+            Migration.upgrade(tree);
+            return tree;
+        }
+        Migration.upgrade(Utils.deserialize(Utils.readContents(legacy),
+                CommitTree.class));
+        return new CommitTree();
+    }
+
+    /**
+     * Writes every part of the commit tree as a file of its own, as old
+     * repositories do not have them.
+     */
+    void writeParts() {
+        branchesDirty = true;
+        headDirty = true;
+        remotesDirty = true;
+        branches();
+        currBranch();
+        remotes();
+        writeCommitTree();
+        if (allCommits != null) {
+            commitLog().write(allCommits);
+        }
+    }
+
+    /**
+     * Returns the ids of the heads of the branches of this repository.
+     * @return the ids.
+     */
+    Collection<String> branchHeads() {
+        return branches().values();
+    }
+
+    /**
+     * Returns the ids of all the commits ever made in this repository.
+     * @return the list of ids.
+     */
+    public ArrayList<String> commitIDs() {
+        return allCommits != null ? allCommits : commitLog().ids();
     }
 }
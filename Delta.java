@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a file. A delta is the length of
+ *  the target followed by a list of instructions, each either copying a
+ *  run of bytes out of the base or inserting literal bytes. Runs shared
+ *  with the base are found by indexing the base in fixed-size blocks and
+ *  sliding a rolling hash over the target.
+ *  @author Yulin Li
+ */
+class Delta {
+
+    /** The instruction copying a run of the base. */
+    private static final int COPY = 1;
+    /** The instruction inserting literal bytes. */
+    private static final int INSERT = 2;
+    /** The length of the blocks in which the base is indexed. */
+    private static final int BLOCK = 16;
+    /** The multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /**
+     * Returns the delta turning BASE into TARGET.
+     * @param base the content of the base.
+     * @param target the content to encode.
+     * @return the delta.
+     */
+    static byte[] diff(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int j = 0; j + BLOCK <= base.length; j += BLOCK) {
+            blocks.putIfAbsent(hash(base, j), j);
+        }
+        int power = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            power *= PRIME;
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer j = blocks.get(h);
+            if (j != null && sameRun(base, j, target, i, BLOCK)) {
+                int start = j;
+                int length = BLOCK;
+                while (start + length < base.length
+                       && i + length < target.length
+                       && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+                while (start > 0 && i > pending
+                       && base[start - 1] == target[i - 1]) {
+                    start -= 1;
+                    i -= 1;
+                    length += 1;
+                }
+                writeInsert(out, target, pending, i);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, length);
+                i += length;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the content obtained by applying DELTA to BASE.
+     * @param base the content of the base.
+     * @param delta the delta.
+     * @return the target content.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] target = new byte[readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get();
+            if (op == COPY) {
+                int start = readVarint(in);
+                int length = readVarint(in);
+                System.arraycopy(base, start, target, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = readVarint(in);
+                in.get(target, pos, length);
+                pos += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (pos != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /**
+     * Writes the instruction inserting TARGET[FROM .. TO) to OUT, if that
+     * run is not empty.
+     * @param out the delta being written.
+     * @param target the content being encoded.
+     * @param from the start of the run.
+     * @param to the end of the run.
+     */
+    private static void writeInsert(ByteArrayOutputStream out,
+                                    byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * Returns true if the LENGTH bytes of A from I equal those of B from J.
+     * @param a the first array.
+     * @param i the start of the run in A.
+     * @param b the second array.
+     * @param j the start of the run in B.
+     * @param length the length of the runs.
+     * @return if the runs are equal.
+     */
+    private static boolean sameRun(byte[] a, int i, byte[] b, int j,
+                                   int length) {
+        for (int k = 0; k < length; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the rolling hash of the block of DATA starting at START.
+     * @param data the content.
+     * @param start the start of the block.
+     * @return the hash.
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + data[start + k];
+        }
+        return h;
+    }
+
+    /**
+     * Writes the non-negative VALUE to OUT, seven bits at a time.
+     * @param out the stream.
+     * @param value the value.
+     */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads a value written by writeVarint from IN.
+     * @param in the buffer.
+     * @return the value.
+     */
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
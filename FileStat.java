@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** What the index remembers of a file in the working directory: its size,
+ *  modification time and inode, and the id of its content when they were
+ *  last seen. A file whose size, time and inode have not changed since is
+ *  taken to still have that content, without being read.
+ *
+ *  A file changed within the granularity of its file system's clock just
+ *  after it was hashed may keep the same time. So an entry is only
+ *  trusted once its file had been left alone for RACY_WINDOW before it
+ *  was hashed; a file that was hashed too soon is hashed again the next
+ *  time it is looked at.
+ *  @author Yulin Li
+ */
+class FileStat {
+
+    /** How long a file must be left alone before its entry is trusted, in
+     *  nanoseconds. */
+    static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+    /** The inode of files on file systems that do not have any. */
+    private static final long NO_INODE = -1;
+
+    /** The length of the file. */
+    private final long _size;
+    /** The modification time of the file, in nanoseconds. */
+    private final long _mtime;
+    /** The inode of the file, or NO_INODE. */
+    private final long _inode;
+    /** The id of the content of the file. */
+    private final String _id;
+    /** When the file was hashed, in nanoseconds. */
+    private final long _checked;
+
+    /**
+     * An entry for a file of length SIZE, modified at MTIME, of inode
+     * INODE, whose content had id ID when it was hashed at CHECKED.
+     * @param size the length of the file.
+     * @param mtime its modification time, in nanoseconds.
+     * @param inode its inode.
+     * @param id the id of its content.
+     * @param checked when it was hashed, in nanoseconds.
+     */
+    FileStat(long size, long mtime, long inode, String id, long checked) {
+        _size = size;
+        _mtime = mtime;
+        _inode = inode;
+        _id = id;
+        _checked = checked;
+    }
+
+    /**
+     * Returns the entry of the file FILE as of now, with no id yet. The
+     * file is to be hashed after this, so that a change made while it is
+     * read shows up as a different time next time.
+     * @param file the file.
+     * @return the entry.
+     */
+    static FileStat of(File file) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        try {
+            long[] stat = stat(file);
+            return new FileStat(stat[0], stat[1], stat[2], null, now);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns this entry with the id ID of the content of the file.
+     * @param id the id.
+     * @return the entry.
+     */
+    FileStat withID(String id) {
+        return new FileStat(_size, _mtime, _inode, id, _checked);
+    }
+
+    /**
+     * Returns true if FILE still looks as it did when this entry was made,
+     * and the entry can be trusted, so that its content still has the id
+     * of this entry.
+     * @param file the file.
+     * @return if the file is unchanged.
+     */
+    boolean matches(File file) {
+        if (_checked - _mtime < RACY_WINDOW) {
+            return false;
+        }
+        try {
+            long[] stat = stat(file);
+            return stat[0] == _size && stat[1] == _mtime
+                && stat[2] == _inode;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the id of the content of the file.
+     * @return the id.
+     */
+    String getID() {
+        return _id;
+    }
+
+    /**
+     * Returns the length of the file.
+     * @return the length.
+     */
+    long getSize() {
+        return _size;
+    }
+
+    /**
+     * Returns the modification time of the file.
+     * @return the time, in nanoseconds.
+     */
+    long getMtime() {
+        return _mtime;
+    }
+
+    /**
+     * Returns the inode of the file.
+     * @return the inode, or -1 where there are none.
+     */
+    long getInode() {
+        return _inode;
+    }
+
+    /**
+     * Returns when the file was hashed.
+     * @return the time, in nanoseconds.
+     */
+    long getChecked() {
+        return _checked;
+    }
+
+    /**
+     * Returns the length, modification time and inode of FILE, in one
+     * system call where the file system allows it.
+     * @param file the file.
+     * @return the length, the time in nanoseconds and the inode.
+     * @throws IOException if the file cannot be looked at.
+     */
+    private static long[] stat(File file) throws IOException {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:size,lastModifiedTime,ino");
+            return new long[] {
+                (Long) attrs.get("size"),
+                ((FileTime) attrs.get("lastModifiedTime"))
+                    .to(TimeUnit.NANOSECONDS),
+                (Long) attrs.get("ino")
+            };
+        } catch (UnsupportedOperationException excp) {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return new long[] {
+                attrs.size(),
+                attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                NO_INODE
+            };
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.util.Arrays;
 
 import static java.lang.System.*;
 
@@ -43,7 +44,11 @@ public class Main {
         } else if (!inited() && !args[0].equals("init")) {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
+        } else if (inited()) {
+            WriteBatch.recover();
         }
+        found = false;
+        tree = new CommitTree();
         switch (args[0]) {
         case "init":
             if (args.length != 1) {
@@ -74,12 +79,19 @@ public class Main {
             writeTree(tree);
             break;
         case "find":
-            if (args.length != 2) {
+            if (args.length == 3 && args[1].equals("--word")) {
+                tree = CommitTree.readCommitTree("mainTree");
+                tree.findWord(args[2]);
+            } else if (args.length == 3 && args[1].equals("--grep")) {
+                tree = CommitTree.readCommitTree("mainTree");
+                tree.findText(args[2]);
+            } else if (args.length != 2) {
                 System.out.println("Incorrect operands.");
                 return;
+            } else {
+                tree = CommitTree.readCommitTree("mainTree");
+                tree.find(args[1]);
             }
-            tree = CommitTree.readCommitTree("mainTree");
-            tree.find(args[1]);
             writeTree(tree);
             found = true;
             break;
@@ -176,6 +188,22 @@ public class Main {
             writeTree(tree);
             found = true;
             break;
+        case "watch":
+            if (args.length != 1) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+            Watcher.watch();
+            found = true;
+            break;
+        case "serve":
+            if (args.length != 1) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+            Server.serve();
+            found = true;
+            break;
         default:
             lastMain(args);
         }
@@ -198,12 +226,12 @@ public class Main {
             found = true;
             break;
         case "add":
-            if (args.length != 2) {
+            if (args.length < 2) {
                 System.out.println("Incorrect operands.");
                 return;
             }
             tree = CommitTree.readCommitTree("mainTree");
-            tree.add(args[1]);
+            tree.add(Arrays.copyOfRange(args, 1, args.length));
             writeTree(tree);
             found = true;
             break;
@@ -218,12 +246,12 @@ public class Main {
             found = true;
             break;
         case "rm":
-            if (args.length != 2) {
+            if (args.length < 2) {
                 System.out.println("Incorrect operands.");
                 return;
             }
             tree = CommitTree.readCommitTree("mainTree");
-            tree.remove(args[1]);
+            tree.remove(Arrays.copyOfRange(args, 1, args.length));
             writeTree(tree);
             found = true;
             break;
@@ -292,6 +320,9 @@ public class Main {
      */
     public static void writeTree(CommitTree thisTree) {
         thisTree.writeCommitTree();
+        ObjectStore.flushAll();
+        WriteBatch.commit();
+        ObjectCache.printStats();
         found = true;
     }
 }
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** The index of the messages of the commits of a repository, so that find
+ *  does not read every commit. It maps every message to the ids of the
+ *  commits that have it, and every word of a message, in lower case, to
+ *  the ids of the commits whose message has that word.
+ *
+ *  The index is kept in two files. .gitlet/message-index holds both maps
+ *  as they were when it was last written, and .gitlet/message-log lists
+ *  the commits written since, as their raw id followed by their message.
+ *  Writing a commit only appends to the log. Once the log grows past a
+ *  quarter of the index, the two are merged into a new index. Both files
+ *  are written through the write batch.
+ *  @author Yulin Li
+ */
+public class MessageIndex {
+
+    /** The name of the index file. */
+    static final String INDEX_NAME = "message-index";
+    /** The name of the log file. */
+    static final String LOG_NAME = "message-log";
+    /** The length of the log below which it is never merged. */
+    private static final int MIN_LOG = 1 << 16;
+
+    /** The index file. */
+    private final File _index;
+    /** The log file. */
+    private final File _log;
+    /** The map from messages to the ids of their commits, or null until
+     *  the files are read. */
+    private LinkedHashMap<String, LinkedHashSet<String>> _messages;
+    /** The map from words to the ids of the commits having them, or null
+     *  until the files are read. */
+    private HashMap<String, LinkedHashSet<String>> _words;
+    /** The map from the ids of commits to their messages, or null until
+     *  the files are read. */
+    private HashMap<String, String> _messageOf;
+    /** The messages of the commits written by this command, by id. */
+    private final LinkedHashMap<String, String> _added =
+        new LinkedHashMap<>();
+
+    /**
+     * The message index of the repository whose .gitlet directory is ROOT.
+     * @param root the .gitlet directory.
+     */
+    MessageIndex(File root) {
+        _index = new File(root, INDEX_NAME);
+        _log = new File(root, LOG_NAME);
+    }
+
+    /**
+     * Returns the message index of the repository in the CWD.
+     * @return the index.
+     */
+    public static MessageIndex local() {
+        return ObjectStore.local().messages();
+    }
+
+    /**
+     * Records that the commit ID has the message MSG.
+     * @param id the id of the commit.
+     * @param msg its message.
+     */
+    public void add(String id, String msg) {
+        _added.put(id, msg);
+        if (_messages != null) {
+            insert(id, msg);
+        }
+    }
+
+    /**
+     * Returns the ids of the commits whose message is MSG, oldest first.
+     * @param msg the message.
+     * @return the ids.
+     */
+    public List<String> withMessage(String msg) {
+        load();
+        return new ArrayList<>(_messages.getOrDefault(msg,
+                new LinkedHashSet<>()));
+    }
+
+    /**
+     * Returns the ids of the commits whose message has the word WORD,
+     * whatever its case.
+     * @param word the word.
+     * @return the ids.
+     */
+    public List<String> withWord(String word) {
+        load();
+        return new ArrayList<>(_words.getOrDefault(
+                word.toLowerCase(Locale.ROOT), new LinkedHashSet<>()));
+    }
+
+    /**
+     * Returns the ids of the commits whose message contains TEXT. Every
+     * whole word of TEXT must be a word of the message, so only messages
+     * having the rarest of those words are looked at.
+     * @param text the text.
+     * @return the ids.
+     */
+    public List<String> containing(String text) {
+        load();
+        List<String> words = words(text);
+        if (words.size() > 2) {
+            LinkedHashSet<String> rarest = null;
+            for (String word : words.subList(1, words.size() - 1)) {
+                LinkedHashSet<String> ids =
+                    _words.getOrDefault(word, new LinkedHashSet<>());
+                if (rarest == null || ids.size() < rarest.size()) {
+                    rarest = ids;
+                }
+            }
+            ArrayList<String> found = new ArrayList<>();
+            for (String id : rarest) {
+                if (_messageOf.get(id).contains(text)) {
+                    found.add(id);
+                }
+            }
+            return found;
+        }
+        ArrayList<String> found = new ArrayList<>();
+        for (Map.Entry<String, LinkedHashSet<String>> entry
+                 : _messages.entrySet()) {
+            if (entry.getKey().contains(text)) {
+                found.addAll(entry.getValue());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Hands the commits written by this command to the write batch,
+     * appending them to the log, or merging the log into the index if it
+     * would grow too long.
+     */
+    void flush() {
+        if (_added.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> commit : _added.entrySet()) {
+            byte[] msg = commit.getValue().getBytes(StandardCharsets.UTF_8);
+            records.writeBytes(ObjectStore.toRaw(commit.getKey()));
+            Delta.writeVarint(records, msg.length);
+            records.writeBytes(msg);
+        }
+        if (WriteBatch.length(_log) + records.size()
+                < Math.max(MIN_LOG, _index.length() / 4)) {
+            WriteBatch.append(_log, records.toByteArray());
+            _added.clear();
+            return;
+        }
+        load();
+        _added.clear();
+        WriteBatch.write(_index, Codec.encodeMessages(_messages, _words));
+        WriteBatch.write(_log, new byte[0]);
+    }
+
+    /** Reads the index and replays the log, unless that was done. */
+    private void load() {
+        if (_messages != null) {
+            return;
+        }
+        _messages = new LinkedHashMap<>();
+        _words = new HashMap<>();
+        _messageOf = new HashMap<>();
+        if (WriteBatch.exists(_index)) {
+            Codec.decodeMessages(WriteBatch.readContents(_index),
+                    _messages, _words);
+            for (Map.Entry<String, LinkedHashSet<String>> entry
+                     : _messages.entrySet()) {
+                for (String id : entry.getValue()) {
+                    _messageOf.put(id, entry.getKey());
+                }
+            }
+        }
+        if (WriteBatch.exists(_log)) {
+            ByteBuffer in = ByteBuffer.wrap(WriteBatch.readContents(_log));
+            byte[] raw = new byte[ObjectStore.ID_BYTES];
+            while (in.hasRemaining()) {
+                in.get(raw);
+                byte[] msg = new byte[Delta.readVarint(in)];
+                in.get(msg);
+                insert(ObjectStore.fromRaw(raw),
+                        new String(msg, StandardCharsets.UTF_8));
+            }
+        }
+        for (Map.Entry<String, String> commit : _added.entrySet()) {
+            insert(commit.getKey(), commit.getValue());
+        }
+    }
+
+    /**
+     * Adds the commit ID, of message MSG, to the maps.
+     * @param id the id of the commit.
+     * @param msg its message.
+     */
+    private void insert(String id, String msg) {
+        _messageOf.put(id, msg);
+        _messages.computeIfAbsent(msg, k -> new LinkedHashSet<>()).add(id);
+        for (String word : words(msg)) {
+            _words.computeIfAbsent(word, k -> new LinkedHashSet<>()).add(id);
+        }
+    }
+
+    /**
+     * Returns the words of TEXT, in lower case, in order.
+     * @param text the text.
+     * @return the words.
+     */
+    static List<String> words(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        for (String word
+                 : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return Collections.unmodifiableList(words);
+    }
+}
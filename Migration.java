@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** One-time upgrades of repositories written by older versions of gitlet.
+ *  The format of a repository is recorded in .gitlet/format; a repository
+ *  without that file predates it. Every command brings the repository up
+ *  to the current format before doing anything else.
+ *  @author Yulin Li
+ */
+public class Migration {
+
+    /** The current format of repositories. */
+    static final int FORMAT = 6;
+    /** The file recording the format of the repository. */
+    static final File FORMAT_FILE = new File(Commit.MAINFILE, "format");
+
+    /**
+     * Returns the format of the repository in the CWD.
+     * @return the format, 0 for repositories that predate the format file.
+     */
+    static int format() {
+        if (!WriteBatch.exists(FORMAT_FILE)) {
+            return 0;
+        }
+        return Integer.parseInt(new String(
+                WriteBatch.readContents(FORMAT_FILE),
+                StandardCharsets.UTF_8).trim());
+    }
+
+    /** Records that the repository in the CWD is in the current format. */
+    static void markCurrent() {
+        WriteBatch.write(FORMAT_FILE,
+                (FORMAT + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Brings the repository of TREE up to the current format.
+     * @param tree the commit tree of the repository.
+     */
+    static void upgrade(CommitTree tree) {
+        int from = format();
+        if (from >= FORMAT) {
+            return;
+        }
+        if (from < 1) {
+            addressBlobsByContent(tree);
+        }
+        if (from < 2) {
+            shardLooseObjects();
+        }
+        if (from < 3) {
+            fillCommitGraph(tree);
+        }
+        if (from < 4) {
+            indexMessages(tree);
+        }
+        if (from < 5) {
+            splitCommitTree(tree);
+        }
+        if (from < 6) {
+            buildBitmaps(tree);
+        }
+        markCurrent();
+    }
+
+    /**
+     * Re-addresses every blob of the repository of TREE by its content
+     * alone, and points every commit and the stage at the new ids. The
+     * ids of the commits themselves are kept. Loose blob files that have
+     * been re-addressed are removed.
+     * @param tree the commit tree of the repository.
+     */
+    private static void addressBlobsByContent(CommitTree tree) {
+        ObjectStore store = ObjectStore.local();
+        HashMap<String, String> newIDs = new HashMap<>();
+        for (String commitID : tree.commitIDs()) {
+            Commit commit = Commit.readCommit(commitID);
+            if (rehashAll(store, commit.getCurrBlobs(), newIDs)) {
+                commit.writeCommit();
+            }
+        }
+        Stage mainStage = Stage.readStage("mainStage");
+        boolean added = rehashAll(store, mainStage.getAddingStage(), newIDs);
+        if (rehashAll(store, mainStage.getRemovingStage(), newIDs)
+                || added) {
+            mainStage.writeStage();
+        }
+        ObjectStore.flushAll();
+        WriteBatch.commit();
+        for (Map.Entry<String, String> entry : newIDs.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                store.looseFile(entry.getKey(), ObjectStore.BLOBS).delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the loose commits and blobs of the repository in the CWD into
+     * the subdirectories named after the start of their ids.
+     */
+    private static void shardLooseObjects() {
+        ObjectStore store = ObjectStore.local();
+        store.shardLoose(ObjectStore.COMMITS);
+        store.shardLoose(ObjectStore.BLOBS);
+    }
+
+    /**
+     * Adds every commit of the repository of TREE to its commit graph, so
+     * that abbreviated ids can be looked up there.
+     * @param tree the commit tree of the repository.
+     */
+    private static void fillCommitGraph(CommitTree tree) {
+        CommitGraph graph = CommitGraph.local();
+        for (String commitID : tree.commitIDs()) {
+            graph.generation(commitID);
+        }
+    }
+
+    /**
+     * Adds every commit of the repository of TREE to its message index, so
+     * that find need not read them.
+     * @param tree the commit tree of the repository.
+     */
+    private static void indexMessages(CommitTree tree) {
+        MessageIndex messages = MessageIndex.local();
+        for (String commitID : tree.commitIDs()) {
+            messages.add(commitID, Commit.readCommit(commitID).getMsg());
+        }
+    }
+
+    /**
+     * Writes the branches, current branch, remotes and commit log of the
+     * repository of TREE each to a file of its own, and removes the
+     * serialized commit tree that held them all.
+     * @param tree the commit tree of the repository.
+     */
+    private static void splitCommitTree(CommitTree tree) {
+        tree.writeParts();
+        ObjectStore.flushAll();
+        WriteBatch.commit();
+        CommitTree.LEGACY_FILE.delete();
+    }
+
+    /**
+     * Builds the reachability bitmap of the head of every branch of the
+     * repository of TREE, so that push and merge need not walk the whole
+     * history the first time.
+     * @param tree the commit tree of the repository.
+     */
+    private static void buildBitmaps(CommitTree tree) {
+        BitmapIndex bitmaps = BitmapIndex.local();
+        for (String head : tree.branchHeads()) {
+            bitmaps.reach(head);
+        }
+    }
+
+    /**
+     * Replaces every blob id in BLOBS by the id of its content, looking
+     * ids up in NEWIDS first and recording the ones computed there.
+     * @param store the object store of the repository.
+     * @param blobs the map from file names to blob ids.
+     * @param newIDs the new ids of the blobs already re-addressed.
+     * @return true if any id in BLOBS changed.
+     */
+    private static boolean rehashAll(ObjectStore store,
+                                     HashMap<String, String> blobs,
+                                     HashMap<String, String> newIDs) {
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            String newID = newIDs.get(entry.getValue());
+            if (newID == null) {
+                newID = Blob.rehash(store, entry.getValue());
+                newIDs.put(entry.getValue(), newID);
+            }
+            if (!newID.equals(entry.getValue())) {
+                entry.setValue(newID);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
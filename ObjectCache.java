@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of the objects decoded while a command runs: commits, and the
+ *  contents of blobs. Entries are weighed by roughly how many bytes they
+ *  hold, and the entries used least recently are dropped once the total
+ *  weight goes over the capacity, so reading the same commit over and
+ *  over costs one read, while reading a huge history costs no more memory
+ *  than the capacity.
+ *
+ *  Blob contents are addressed by content, so they are keyed by id alone,
+ *  whatever the repository. Commits keep a reference to the object store
+ *  they were read from, so they are keyed by both.
+ *
+ *  Running a command with -Dgitlet.cachestats=true prints the number of
+ *  hits and misses of the cache on standard error when it ends.
+ *  @author Yulin Li
+ */
+public class ObjectCache {
+
+    /** The largest total weight of the entries the cache holds. */
+    static final long CAPACITY = 32L << 20;
+    /** The property asking for the counters to be printed. */
+    static final String STATS_PROPERTY = "gitlet.cachestats";
+
+    /** The entries, least recently used first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** The total weight of ENTRIES. */
+    private static long totalWeight;
+    /** The number of lookups that found their entry. */
+    private static long hits;
+    /** The number of lookups that did not. */
+    private static long misses;
+
+    /** An object held by the cache. */
+    private static class Entry {
+        /** The object. */
+        private final Object _value;
+        /** Its weight. */
+        private final long _weight;
+
+        /**
+         * An entry holding VALUE, of weight WEIGHT.
+         * @param value the object.
+         * @param weight its weight.
+         */
+        Entry(Object value, long weight) {
+            _value = value;
+            _weight = weight;
+        }
+    }
+
+    /**
+     * Returns the key of the commit ID read from STORE.
+     * @param store the object store of the repository.
+     * @param id the id of the commit.
+     * @return the key.
+     */
+    static String commitKey(ObjectStore store, String id) {
+        return store.root().getAbsolutePath() + ":" + id;
+    }
+
+    /**
+     * Returns the object cached under KEY, or null.
+     * @param key the key.
+     * @param <T> the type of the object.
+     * @return the object.
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized <T> T get(String key) {
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return (T) entry._value;
+    }
+
+    /**
+     * Caches VALUE, of weight WEIGHT, under KEY, replacing what was cached
+     * there. Objects heavier than the whole cache are not kept.
+     * @param key the key.
+     * @param value the object.
+     * @param weight its weight.
+     */
+    static synchronized void put(String key, Object value, long weight) {
+        Entry old = ENTRIES.remove(key);
+        if (old != null) {
+            totalWeight -= old._weight;
+        }
+        if (weight > CAPACITY) {
+            return;
+        }
+        ENTRIES.put(key, new Entry(value, weight));
+        totalWeight += weight;
+        Iterator<Map.Entry<String, Entry>> eldest =
+            ENTRIES.entrySet().iterator();
+        while (totalWeight > CAPACITY) {
+            totalWeight -= eldest.next().getValue()._weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Changes the weight of the entry under KEY to WEIGHT, if VALUE is
+     * still what is cached there.
+     * @param key the key.
+     * @param value the object that grew or shrank.
+     * @param weight its new weight.
+     */
+    static synchronized void reweigh(String key, Object value, long weight) {
+        Entry entry = ENTRIES.get(key);
+        if (entry != null && entry._value == value) {
+            put(key, value, weight);
+        }
+    }
+
+    /** Drops every commit cached, as they keep the object stores they
+     *  were read from; the contents of blobs are kept. */
+    static synchronized void dropCommits() {
+        Iterator<Map.Entry<String, Entry>> entries =
+            ENTRIES.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Entry> entry = entries.next();
+            if (entry.getKey().indexOf(':') >= 0) {
+                totalWeight -= entry.getValue()._weight;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their entry.
+     * @return the number of hits.
+     */
+    static synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their entry.
+     * @return the number of misses.
+     */
+    static synchronized long misses() {
+        return misses;
+    }
+
+    /** Prints the counters on standard error if they were asked for. */
+    static synchronized void printStats() {
+        if (Boolean.getBoolean(STATS_PROPERTY)) {
+            System.err.printf("object cache: %d hits, %d misses, "
+                    + "%d bytes held%n", hits, misses, totalWeight);
+        }
+    }
+}
@@ -0,0 +1,933 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The object store of a gitlet repository. Commits and blobs are
+ *  appended to a single packfile, and a companion index, sorted by id,
+ *  maps every object to its offset in the pack so that a lookup is a
+ *  binary search instead of a directory lookup. Objects written before
+ *  packs existed are still read from their loose files.
+ *
+ *  A pack record is the 20-byte raw id, the 4-byte length of the payload
+ *  and the payload itself. The index holds the number of entries, the
+ *  length of the pack it covers, and then the sorted (id, offset) pairs.
+ *  Records appended after the index was last written (for example by a
+ *  command that died before flushing) are recovered by scanning the tail
+ *  of the pack when the store is opened.
+ *
+ *  Loose objects are kept under a subdirectory named after the first two
+ *  hexadecimal digits of their id, so that no directory holds more than
+ *  a fraction of them. Every loose path is built by looseFile.
+ *
+ *  Checking whether the store has an object, as fetch and push do for
+ *  every object they may copy, goes through a Bloom filter over the
+ *  index, kept next to it, before searching the index; and loose files
+ *  are only looked for if the store has any.
+ *
+ *  The reachability bitmaps of the tips of branches are kept next to the
+ *  index too; see BitmapIndex.
+ *  @author Yulin Li
+ */
+public class ObjectStore {
+
+    /** The name of the directory holding the pack and its index. */
+    static final String PACK_DIR = ".pack";
+    /** The name of the packfile. */
+    static final String PACK_NAME = "objects.pack";
+    /** The name of the index of the packfile. */
+    static final String INDEX_NAME = "objects.idx";
+    /** The name of the Bloom filter over the index. */
+    static final String FILTER_NAME = "objects.bloom";
+    /** The name of the reachability bitmaps of the objects. */
+    static final String BITMAP_NAME = "objects.bitmap";
+    /** The loose directory of the commits. */
+    static final String COMMITS = ".commits";
+    /** The loose directory of the blobs. */
+    static final String BLOBS = ".blobs";
+    /** The number of digits of an id naming its loose subdirectory. */
+    static final int FANOUT = 2;
+
+    /** The length of a raw SHA-1 id in bytes. */
+    static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    /** The length of the header of a pack record. */
+    private static final int RECORD_HEADER = ID_BYTES + Integer.BYTES;
+    /** The size of the chunks in which records are streamed. */
+    static final int CHUNK = 1 << 16;
+    /** The length of the header of the index. */
+    private static final int INDEX_HEADER = Integer.BYTES + Long.BYTES;
+    /** The length of one entry of the index. */
+    private static final int INDEX_ENTRY = ID_BYTES + Long.BYTES;
+
+    /** The stores opened by this process, keyed by repository path. */
+    private static final HashMap<String, ObjectStore> OPEN = new HashMap<>();
+
+    /** The .gitlet directory of this store. */
+    private final File _root;
+    /** The packfile. */
+    private final File _pack;
+    /** The index of the packfile. */
+    private final File _index;
+    /** The Bloom filter over the index. */
+    private final File _filterFile;
+    /** The Bloom filter over the sorted part of the index, or null until
+     *  it is needed. */
+    private BloomFilter _filter;
+    /** The length of the pack covered by the sorted part of the index. */
+    private long _covered;
+    /** Whether each loose directory holds anything, once looked at. */
+    private final HashMap<String, Boolean> _hasLoose = new HashMap<>();
+    /** The number of objects copied into this store by this command. */
+    private int _received;
+    /** The number of objects this store already had when they were to
+     *  be copied into it by this command. */
+    private int _skipped;
+    /** The mapped sorted part of the index, or null if there is none. */
+    private MappedByteBuffer _sorted;
+    /** The number of entries in the sorted part of the index. */
+    private int _count;
+    /** Objects in the pack that are not yet in the sorted index. */
+    private final HashMap<String, Long> _pending = new HashMap<>();
+    /** The end of the last whole record of the pack, where the next
+     *  record is appended; anything after it is a torn record. */
+    private long _end;
+    /** True if this process appended to the pack since it was synced. */
+    private boolean _appended;
+    /** The commit graph of this store, or null if not opened yet. */
+    private CommitGraph _graph;
+    /** The message index of this store, or null if not opened yet. */
+    private MessageIndex _messages;
+    /** The reachability bitmaps of this store, or null if not opened
+     *  yet. */
+    private BitmapIndex _bitmaps;
+
+    /**
+     * Opens the object store of the repository whose .gitlet directory
+     * is ROOT.
+     * @param root the .gitlet directory of the repository.
+     */
+    private ObjectStore(File root) {
+        _root = root;
+        File dir = new File(root, PACK_DIR);
+        _pack = new File(dir, PACK_NAME);
+        _index = new File(dir, INDEX_NAME);
+        _filterFile = new File(dir, FILTER_NAME);
+        load();
+    }
+
+    /**
+     * Returns the object store of the repository whose .gitlet directory
+     * is ROOT, opening it if this process has not done so yet.
+     * @param root the .gitlet directory of the repository.
+     * @return the store.
+     */
+    public static ObjectStore open(File root) {
+        String key = root.getAbsolutePath();
+        ObjectStore store = OPEN.get(key);
+        if (store == null) {
+            store = new ObjectStore(root);
+            OPEN.put(key, store);
+        }
+        return store;
+    }
+
+    /**
+     * Returns the object store of the repository in the CWD.
+     * @return the store.
+     */
+    public static ObjectStore local() {
+        return open(Commit.MAINFILE);
+    }
+
+    /** Hands the index of every store opened by this process to the
+     *  write batch. */
+    public static void flushAll() {
+        for (ObjectStore store : OPEN.values()) {
+            store.flush();
+        }
+    }
+
+    /** Forgets every store opened by this process, so that the next use
+     *  of each reads it from disk again. */
+    public static void closeAll() {
+        OPEN.clear();
+    }
+
+    /**
+     * Returns true if this process opened the store of a repository other
+     * than the one in the CWD.
+     * @return if it did.
+     */
+    public static boolean openedRemote() {
+        String local = Commit.MAINFILE.getAbsolutePath();
+        for (String key : OPEN.keySet()) {
+            if (!key.equals(local)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Forces to disk every pack this process appended to. */
+    public static void syncAll() {
+        for (ObjectStore store : OPEN.values()) {
+            store.sync();
+        }
+    }
+
+    /** Forces the pack to disk if this process appended to it. */
+    private void sync() {
+        if (!_appended) {
+            return;
+        }
+        try (FileChannel out = FileChannel.open(_pack.toPath(),
+                StandardOpenOption.WRITE)) {
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _appended = false;
+    }
+
+    /**
+     * Returns the .gitlet directory of this store.
+     * @return the directory.
+     */
+    public File root() {
+        return _root;
+    }
+
+    /**
+     * Returns the commit graph of the commits in this store.
+     * @return the graph.
+     */
+    public CommitGraph graph() {
+        if (_graph == null) {
+            _graph = new CommitGraph(this,
+                    new File(_root, CommitGraph.GRAPH_NAME));
+        }
+        return _graph;
+    }
+
+    /**
+     * Returns the index of the messages of the commits in this store.
+     * @return the index.
+     */
+    public MessageIndex messages() {
+        if (_messages == null) {
+            _messages = new MessageIndex(_root);
+        }
+        return _messages;
+    }
+
+    /**
+     * Returns the reachability bitmaps of the objects in this store.
+     * @return the bitmaps.
+     */
+    public BitmapIndex bitmaps() {
+        if (_bitmaps == null) {
+            _bitmaps = new BitmapIndex(this,
+                    new File(_pack.getParentFile(), BITMAP_NAME));
+        }
+        return _bitmaps;
+    }
+
+    /**
+     * Creates the directory of the pack of this store.
+     */
+    public void makeDir() {
+        _pack.getParentFile().mkdirs();
+    }
+
+    /**
+     * Returns true if the object ID is in the pack.
+     * @param id the id of the object.
+     * @return if it is packed.
+     */
+    public boolean contains(String id) {
+        if (_pending.containsKey(id)) {
+            return true;
+        } else if (_sorted == null || id.length() != Utils.UID_LENGTH
+                   || !filter().mightContain(toRaw(id))) {
+            return false;
+        }
+        return offsetOf(id) >= 0;
+    }
+
+    /**
+     * Returns true if the object ID is in the pack or stored loose in
+     * the directory KIND.
+     * @param id the id of the object.
+     * @param kind the loose directory of its kind of object.
+     * @return if it is stored.
+     */
+    public boolean contains(String id, String kind) {
+        return contains(id)
+            || (hasLoose(kind) && looseFile(id, kind).isFile());
+    }
+
+    /**
+     * Returns true if this store lacks the object ID, which is thus to be
+     * copied into it, and counts it as received; otherwise counts it as
+     * skipped.
+     * @param id the id of the object.
+     * @return if it is to be copied.
+     */
+    public boolean wants(String id) {
+        return count(!contains(id));
+    }
+
+    /**
+     * Returns true if this store lacks the object ID, which may also be
+     * stored loose in the directory KIND, and counts it as for wants.
+     * @param id the id of the object.
+     * @param kind the loose directory of its kind of object.
+     * @return if it is to be copied.
+     */
+    public boolean wants(String id, String kind) {
+        return count(!contains(id, kind));
+    }
+
+    /**
+     * Counts an object as received if WANTED, or as skipped.
+     * @param wanted whether the object is to be copied.
+     * @return WANTED.
+     */
+    private boolean count(boolean wanted) {
+        if (wanted) {
+            _received += 1;
+        } else {
+            _skipped += 1;
+        }
+        return wanted;
+    }
+
+    /**
+     * Returns the number of objects copied into this store by this
+     * command.
+     * @return the number of objects.
+     */
+    public int received() {
+        return _received;
+    }
+
+    /**
+     * Returns the number of objects that were to be copied into this
+     * store by this command, but that it already had.
+     * @return the number of objects.
+     */
+    public int skipped() {
+        return _skipped;
+    }
+
+    /**
+     * Returns true if the loose directory KIND holds anything, looking
+     * only once per command.
+     * @param kind the loose directory of a kind of object.
+     * @return if there may be loose objects of that kind.
+     */
+    private boolean hasLoose(String kind) {
+        return _hasLoose.computeIfAbsent(kind, k -> {
+            String[] names = new File(_root, k).list();
+            return names != null && names.length > 0;
+        });
+    }
+
+    /**
+     * Returns the Bloom filter over the sorted part of the index, reading
+     * it, or building it if it is missing or out of date.
+     * @return the filter.
+     */
+    private BloomFilter filter() {
+        if (_filter == null) {
+            if (_filterFile.isFile()) {
+                _filter = BloomFilter.fromBytes(
+                        Utils.readContents(_filterFile));
+            }
+            if (_filter == null || !_filter.covers(_count, _covered)) {
+                _filter = new BloomFilter(_count, _covered);
+                byte[] raw = new byte[ID_BYTES];
+                for (int k = 0; k < _count; k += 1) {
+                    _sorted.get(INDEX_HEADER + k * INDEX_ENTRY, raw);
+                    _filter.add(raw);
+                }
+            }
+        }
+        return _filter;
+    }
+
+    /**
+     * Appends the object OBJ with id ID to the pack. A later record with
+     * the same id supersedes an earlier one.
+     * @param id the id of the object.
+     * @param obj the object.
+     */
+    public void write(String id, Serializable obj) {
+        writeBytes(id, Utils.serialize(obj));
+    }
+
+    /**
+     * Appends the record of id ID and payload PAYLOAD to the pack.
+     * @param id the id of the object.
+     * @param payload its stored form.
+     */
+    public void writeBytes(String id, byte[] payload) {
+        makeDir();
+        try (FileChannel out = openEnd()) {
+            long offset = _end;
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER
+                    + payload.length);
+            buf.put(toRaw(id)).putInt(payload.length).put(payload).flip();
+            out.position(offset);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            _pending.put(id, offset);
+            _end = out.position();
+            _appended = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Opens the pack for writing at the end of its last whole record,
+     * first cutting off any torn record left after it by a command that
+     * died while appending, so that no record follows garbage.
+     * @return the channel, positioned at the end.
+     * @throws IOException if the pack cannot be opened or cut.
+     */
+    private FileChannel openEnd() throws IOException {
+        FileChannel out = FileChannel.open(_pack.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (out.size() > _end) {
+            out.truncate(_end);
+        }
+        out.position(_end);
+        return out;
+    }
+
+    /**
+     * Starts a new record of id ID at the end of the pack. Its payload is
+     * whatever is written to the returned stream, and the record becomes
+     * part of the store when that stream is closed.
+     * @param id the id of the object.
+     * @return the stream of the payload.
+     */
+    public RecordOutput newRecord(String id) {
+        makeDir();
+        return new RecordOutput(id);
+    }
+
+    /**
+     * Reads the object ID of class EXPECTEDCLASS, looking in the pack
+     * first and then in the loose directory KIND.
+     * @param id the id of the object.
+     * @param kind the loose directory of its kind of object.
+     * @param expectedClass the class of the object.
+     * @param <T> the type of the object.
+     * @return the object.
+     */
+    public <T extends Serializable> T read(String id, String kind,
+                                           Class<T> expectedClass) {
+        byte[] payload = readBytes(id);
+        if (payload == null) {
+            return Utils.readObject(looseFile(id, kind), expectedClass);
+        }
+        return Utils.deserialize(payload, expectedClass);
+    }
+
+    /**
+     * Returns the payload of the packed object ID, or null if it is not
+     * in the pack.
+     * @param id the id of the object.
+     * @return its stored form.
+     */
+    public byte[] readBytes(String id) {
+        long offset = offsetOf(id);
+        if (offset < 0) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(_pack, "r")) {
+            in.seek(offset + ID_BYTES);
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return payload;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns a stream over the payload of the packed object ID, or null
+     * if it is not in the pack. The payload is read from the pack as the
+     * stream is consumed rather than all at once.
+     * @param id the id of the object.
+     * @return the stream, which the caller must close.
+     */
+    public InputStream openStream(String id) {
+        long offset = offsetOf(id);
+        if (offset < 0) {
+            return null;
+        }
+        try {
+            FileChannel in = FileChannel.open(_pack.toPath());
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            in.read(length, offset + ID_BYTES);
+            in.position(offset + RECORD_HEADER);
+            return new RecordStream(new BufferedInputStream(
+                    Channels.newInputStream(in)), length.getInt(0));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copies the payload of the packed object ID, but for its first byte,
+     * into the file TARGET, if that byte is FIRST. The bytes go from the
+     * pack to the file through FileChannel.transferTo, so where the
+     * system allows they are never copied into this process at all.
+     * @param id the id of the object.
+     * @param first the byte its payload must start with.
+     * @param target the file to be written.
+     * @return false, having written nothing, if the object is not in the
+     *         pack or its payload does not start with FIRST.
+     */
+    public boolean transferTo(String id, byte first, File target) {
+        long offset = offsetOf(id);
+        if (offset < 0) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(_pack.toPath())) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 1);
+            in.read(header, offset + ID_BYTES);
+            if (header.position() < header.capacity()
+                    || header.get(Integer.BYTES) != first) {
+                return false;
+            }
+            long position = offset + RECORD_HEADER + 1;
+            long left = header.getInt(0) - 1;
+            try (FileChannel out = FileChannel.open(target.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (left > 0) {
+                    long n = in.transferTo(position, left, out);
+                    if (n <= 0) {
+                        throw new IOException("pack record cut short");
+                    }
+                    position += n;
+                    left -= n;
+                }
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the loose file of the object ID of kind KIND.
+     * @param id the id of the object.
+     * @param kind the loose directory of its kind of object.
+     * @return the file.
+     */
+    public File looseFile(String id, String kind) {
+        File dir = new File(_root, kind);
+        File sharded = new File(new File(dir, id.substring(0, FANOUT)),
+                id.substring(FANOUT));
+        if (!sharded.isFile()) {
+            File flat = new File(dir, id);
+            if (flat.isFile()) {
+                return flat;
+            }
+        }
+        return sharded;
+    }
+
+    /**
+     * Moves every loose object of kind KIND still kept directly in its
+     * loose directory into its subdirectory.
+     * @param kind the loose directory of a kind of object.
+     */
+    public void shardLoose(String kind) {
+        File dir = new File(_root, kind);
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return;
+        }
+        try {
+            for (String id : names) {
+                if (id.length() != Utils.UID_LENGTH) {
+                    continue;
+                }
+                File sub = new File(dir, id.substring(0, FANOUT));
+                sub.mkdir();
+                Files.move(new File(dir, id).toPath(),
+                        new File(sub, id.substring(FANOUT)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the offset of the record of ID in the pack, or -1.
+     * @param id the id of the object.
+     * @return the offset.
+     */
+    private long offsetOf(String id) {
+        Long pending = _pending.get(id);
+        if (pending != null) {
+            return pending;
+        }
+        if (_sorted == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] raw = toRaw(id);
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return _sorted.getLong(INDEX_HEADER + mid * INDEX_ENTRY
+                        + ID_BYTES);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the id of entry K of the index with RAW.
+     * @param k the number of the entry.
+     * @param raw the raw id.
+     * @return the comparison, unsigned byte by byte.
+     */
+    private int compareAt(int k, byte[] raw) {
+        int base = INDEX_HEADER + k * INDEX_ENTRY;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(_sorted.get(base + i) & 0xff,
+                    raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Maps the index and recovers the records it does not cover yet. */
+    private void load() {
+        long covered = 0;
+        if (_index.isFile()) {
+            try (FileChannel in = FileChannel.open(_index.toPath())) {
+                _sorted = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                _count = _sorted.getInt(0);
+                covered = _sorted.getLong(Integer.BYTES);
+                _covered = covered;
+                _end = covered;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (_pack.isFile() && _pack.length() > covered) {
+            scanTail(covered);
+        }
+    }
+
+    /**
+     * Adds every record of the pack from offset FROM on to the pending
+     * entries, up to the first torn one: one running past the end of the
+     * pack, or one whose header is still zeros, as a streamed record's
+     * is until its payload is complete. The torn record and anything
+     * after it are cut off before the next append.
+     * @param from the offset of the first record not in the index.
+     */
+    private void scanTail(long from) {
+        try (RandomAccessFile in = new RandomAccessFile(_pack, "r")) {
+            long offset = from;
+            byte[] raw = new byte[ID_BYTES];
+            while (offset + RECORD_HEADER <= in.length()) {
+                in.seek(offset);
+                in.readFully(raw);
+                int length = in.readInt();
+                long next = offset + RECORD_HEADER + length;
+                if (length < 0 || next > in.length()
+                        || Arrays.equals(raw, new byte[ID_BYTES])) {
+                    break;
+                }
+                _pending.put(fromRaw(raw), offset);
+                offset = next;
+            }
+            _end = offset;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Merges the pending entries into the sorted index and hands it, with
+     * its Bloom filter, the commit graph, the message index and the
+     * reachability bitmaps, to the write batch, which replaces the old
+     * files when the command ends. Until then the pending entries are
+     * still looked up here.
+     */
+    public void flush() {
+        if (_graph != null) {
+            _graph.flush();
+        }
+        if (_messages != null) {
+            _messages.flush();
+        }
+        if (_bitmaps != null) {
+            _bitmaps.flush();
+        }
+        if (_pending.isEmpty()) {
+            return;
+        }
+        TreeMap<String, Long> entries = new TreeMap<>();
+        for (int k = 0; k < _count; k += 1) {
+            int base = INDEX_HEADER + k * INDEX_ENTRY;
+            byte[] raw = new byte[ID_BYTES];
+            _sorted.get(base, raw);
+            entries.put(fromRaw(raw), _sorted.getLong(base + ID_BYTES));
+        }
+        entries.putAll(_pending);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                INDEX_HEADER + entries.size() * INDEX_ENTRY);
+        BloomFilter filter = new BloomFilter(entries.size(), _end);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            out.writeLong(_end);
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                byte[] raw = toRaw(entry.getKey());
+                out.write(raw);
+                out.writeLong(entry.getValue());
+                filter.add(raw);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        WriteBatch.write(_index, bytes.toByteArray());
+        WriteBatch.write(_filterFile, filter.toByteArray());
+    }
+
+    /**
+     * Converts the hexadecimal id ID to its raw bytes.
+     * @param id the id.
+     * @return the raw bytes.
+     */
+    static byte[] toRaw(String id) {
+        byte[] raw = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            raw[i] = (byte) Integer.parseInt(
+                    id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    /**
+     * Converts the raw bytes RAW of an id to hexadecimal.
+     * @param raw the raw bytes.
+     * @return the id.
+     */
+    static String fromRaw(byte[] raw) {
+        StringBuilder id = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : raw) {
+            id.append(Character.forDigit((b >> 4) & 0xf, 16));
+            id.append(Character.forDigit(b & 0xf, 16));
+        }
+        return id.toString();
+    }
+
+    /** A stream writing the payload of a single record at the end of the
+     *  pack, a chunk at a time. The header of the record is left zeros
+     *  until the stream is closed, and only then written, so a record cut
+     *  short is never taken for a whole one. */
+    public class RecordOutput extends OutputStream {
+
+        /** The id of the object being written. */
+        private final String _id;
+        /** The channel of the pack. */
+        private final FileChannel _out;
+        /** The offset of the record in the pack. */
+        private final long _offset;
+        /** The bytes written but not yet passed on to the pack. */
+        private final ByteBuffer _buf = ByteBuffer.allocate(CHUNK);
+        /** The length of the payload written so far. */
+        private long _length;
+        /** True once the record is closed or aborted. */
+        private boolean _done;
+
+        /**
+         * Starts the record of id ID.
+         * @param id the id of the object.
+         */
+        RecordOutput(String id) {
+            _id = id;
+            try {
+                _out = openEnd();
+                _offset = _end;
+                _out.position(_offset + RECORD_HEADER);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!_buf.hasRemaining()) {
+                drain();
+            }
+            _buf.put((byte) b);
+            _length += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!_buf.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(len, _buf.remaining());
+                _buf.put(b, off, n);
+                off += n;
+                len -= n;
+                _length += n;
+            }
+        }
+
+        /**
+         * Returns the number of bytes of payload written so far.
+         * @return the length.
+         */
+        public long length() {
+            return _length;
+        }
+
+        /**
+         * Passes the buffered bytes on to the pack.
+         * @throws IOException if the pack cannot be written.
+         */
+        private void drain() throws IOException {
+            _buf.flip();
+            while (_buf.hasRemaining()) {
+                _out.write(_buf);
+            }
+            _buf.clear();
+        }
+
+        /** Drops the record, cutting the pack back to where it started. */
+        public void abort() {
+            if (_done) {
+                return;
+            }
+            _done = true;
+            try {
+                _out.truncate(_offset);
+                _out.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_done) {
+                return;
+            }
+            _done = true;
+            if (_length > Integer.MAX_VALUE) {
+                _out.truncate(_offset);
+                _out.close();
+                throw new IOException("object too large for the pack");
+            }
+            drain();
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+            header.put(toRaw(_id)).putInt((int) _length).flip();
+            while (header.hasRemaining()) {
+                _out.write(header, _offset + header.position());
+            }
+            _out.close();
+            _pending.put(_id, _offset);
+            _end = _offset + RECORD_HEADER + _length;
+            _appended = true;
+        }
+    }
+
+    /** A stream over the payload of a single pack record. */
+    private static class RecordStream extends FilterInputStream {
+
+        /** The number of bytes of the record not read yet. */
+        private long _left;
+
+        /**
+         * A stream over the next LENGTH bytes of IN.
+         * @param in the stream positioned at the start of the payload.
+         * @param length the length of the payload.
+         */
+        RecordStream(InputStream in, long length) {
+            super(in);
+            _left = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_left <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                _left -= 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (_left <= 0) {
+                return -1;
+            }
+            int n = super.read(buf, off, (int) Math.min(len, _left));
+            if (n > 0) {
+                _left -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, _left));
+            _left -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), _left);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/** Runs the work of a command on the files of the working directory across
+ *  a fork/join pool. The number of threads is the number of processors,
+ *  unless the command is run with -Dgitlet.threads=N; with N = 1 the work
+ *  runs on the calling thread alone.
+ *  @author Yulin Li
+ */
+class Parallel {
+
+    /** The property setting the number of threads. */
+    static final String THREADS_PROPERTY = "gitlet.threads";
+
+    /** The pool, made the first time it is needed. */
+    private static ForkJoinPool pool;
+
+    /**
+     * Returns the number of threads work is spread across.
+     * @return the parallelism, at least 1.
+     */
+    static int parallelism() {
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the pool work is run in.
+     * @return the pool.
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism());
+        }
+        return pool;
+    }
+
+    /**
+     * Applies FUNCTION to every item of ITEMS, in parallel, and returns
+     * the results that are not null.
+     * @param items the items.
+     * @param function the work done on each item, safe to run on several
+     *                 items at once.
+     * @param <T> the type of the items.
+     * @param <R> the type of the results.
+     * @return the map from items to their results.
+     */
+    static <T, R> HashMap<T, R> map(Collection<T> items,
+                                    Function<T, R> function) {
+        List<T> list = new ArrayList<>(items);
+        Object[] results = new Object[list.size()];
+        if (parallelism() == 1 || list.size() < 2) {
+            for (int i = 0; i < results.length; i += 1) {
+                results[i] = function.apply(list.get(i));
+            }
+        } else {
+            pool().submit(() -> IntStream.range(0, results.length).parallel()
+                    .forEach(i -> results[i] = function.apply(list.get(i))))
+                .join();
+        }
+        HashMap<T, R> map = new HashMap<>();
+        for (int i = 0; i < results.length; i += 1) {
+            if (results[i] != null) {
+                @SuppressWarnings("unchecked")
+                R result = (R) results[i];
+                map.put(list.get(i), result);
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The resident gitlet server, so that a command costs neither the start
+ *  of a JVM nor reading the object store cold.
+ *
+ *  `java gitlet.Main serve` listens on the Unix-domain socket
+ *  .gitlet/server.sock until it is killed, and runs the commands Client
+ *  sends it one after another, through Main, as if each were a process of
+ *  its own. A request is the number of arguments and each argument, as by
+ *  DataOutputStream.writeUTF. The answer is a series of frames, each a
+ *  byte naming the stream, OUT or ERR, the length of its bytes and the
+ *  bytes, then a byte END and the exit status.
+ *
+ *  Between commands the server keeps the JIT, the pool of Parallel, the
+ *  contents of blobs in ObjectCache and the open object stores, with their
+ *  mapped index, Bloom filter, commit graph, message index and bitmaps.
+ *  The stores, and the commits cached with them, are dropped whenever the
+ *  files they are read from differ from what they were when the last
+ *  command ended, or change while a command runs, whoever changed them; so
+ *  the server can share the repository with other gitlet processes. The
+ *  branches and the stage are read from disk by each command as before:
+ *  they are small, and a command that fails part way may have changed its
+ *  copy of them. What a command staged in the write batch and did not
+ *  commit is dropped when it ends, as it would be by the end of a process.
+ *  @author Yulin Li
+ */
+class Server {
+
+    /** The name of the socket, in .gitlet. */
+    static final String SOCKET_NAME = "server.sock";
+    /** The frame holding bytes of standard output. */
+    static final byte OUT = 1;
+    /** The frame holding bytes of standard error. */
+    static final byte ERR = 2;
+    /** The frame holding the exit status, which ends the answer. */
+    static final byte END = 0;
+    /** The size of the buffer between a command and its frames. */
+    private static final int BUFFER = 1 << 13;
+
+    /** The stamp of the files the open object stores were read from, as
+     *  they were when the last command ended. */
+    private static String stamp = "";
+
+    /**
+     * Returns the socket of the repository in the CWD. It is named
+     * relative to the CWD, as the absolute names of sockets are limited
+     * to about a hundred bytes.
+     * @return the address of the socket.
+     */
+    static UnixDomainSocketAddress address() {
+        return UnixDomainSocketAddress.of(
+                Path.of(Stage.MAINFILE.getName(), SOCKET_NAME));
+    }
+
+    /**
+     * Serves the commands of clients until the process is killed. Prints
+     * why and returns if a server is already running.
+     */
+    static void serve() {
+        Path socket = address().getPath();
+        try {
+            SocketChannel.open(address()).close();
+            System.out.println("A server is already running.");
+            return;
+        } catch (IOException excp) {
+            socket.toFile().delete();
+        }
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> socket.toFile().delete()));
+            stamp = stamp();
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    answer(client);
+                } catch (EOFException excp) {
+                    continue;
+                } catch (IOException excp) {
+                    System.err.println("Lost a client: " + excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Runs the command CLIENT sends, sending back what it prints.
+     * @param client the connection to the client.
+     * @throws IOException if the request cannot be read.
+     */
+    private static void answer(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int k = 0; k < args.length; k += 1) {
+            args[k] = in.readUTF();
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new Frames(client, OUT), BUFFER), false);
+        PrintStream err = new PrintStream(new BufferedOutputStream(
+                new Frames(client, ERR), BUFFER), false);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        int status = 0;
+        System.setOut(out);
+        System.setErr(err);
+        try {
+            if (args.length > 0 && (args[0].equals("serve")
+                                    || args[0].equals("watch"))) {
+                System.out.println("The server cannot run that command.");
+            } else {
+                run(args);
+            }
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            WriteBatch.discard();
+            out.flush();
+            err.flush();
+        }
+        client.write(ByteBuffer.allocate(1 + Integer.BYTES)
+                .put(END).putInt(status).flip());
+    }
+
+    /**
+     * Runs the command ARGS through Main, first dropping the object
+     * stores if their files changed since the last command ended, and
+     * afterwards if they changed while it ran or it opened the store of
+     * a remote, whose files are not stamped.
+     * @param args the command and its operands.
+     */
+    private static void run(String[] args) {
+        String before = stamp();
+        if (!before.equals(stamp)) {
+            ObjectStore.closeAll();
+            ObjectCache.dropCommits();
+        }
+        stamp = "";
+        Main.main(args);
+        String after = stamp();
+        if (!after.equals(before) || ObjectStore.openedRemote()) {
+            ObjectStore.closeAll();
+            ObjectCache.dropCommits();
+        }
+        stamp = after;
+    }
+
+    /**
+     * Returns the names, lengths, times and file keys of the files the
+     * object store of the repository in the CWD is read from.
+     * @return the stamp, equal for two calls only if none changed.
+     */
+    private static String stamp() {
+        File root = Stage.MAINFILE;
+        List<File> files = new ArrayList<>();
+        File[] packed = new File(root, ObjectStore.PACK_DIR).listFiles();
+        if (packed != null) {
+            Arrays.sort(packed);
+            files.addAll(Arrays.asList(packed));
+        }
+        for (String name
+                 : new String[] {CommitGraph.GRAPH_NAME,
+                                 MessageIndex.INDEX_NAME,
+                                 MessageIndex.LOG_NAME, ObjectStore.COMMITS,
+                                 ObjectStore.BLOBS}) {
+            files.add(new File(root, name));
+        }
+        StringBuilder stamp = new StringBuilder();
+        for (File file : files) {
+            stamp.append(file.getName());
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                stamp.append(' ').append(attrs.size())
+                    .append(' ').append(attrs.lastModifiedTime().toInstant())
+                    .append(' ').append(attrs.fileKey());
+            } catch (IOException excp) {
+                stamp.append(" -");
+            }
+            stamp.append('\n');
+        }
+        return stamp.toString();
+    }
+
+    /** The output stream sending what is written to it as frames of one
+     *  stream. */
+    private static class Frames extends OutputStream {
+
+        /** The connection to the client. */
+        private final SocketChannel _client;
+        /** OUT or ERR. */
+        private final byte _stream;
+
+        /**
+         * A stream sending frames of STREAM to CLIENT.
+         * @param client the connection to the client.
+         * @param stream OUT or ERR.
+         */
+        Frames(SocketChannel client, byte stream) {
+            _client = client;
+            _stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(1 + Integer.BYTES + len);
+            frame.put(_stream).putInt(len).put(bytes, off, len).flip();
+            while (frame.hasRemaining()) {
+                _client.write(frame);
+            }
+        }
+    }
+}
@@ -2,12 +2,20 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import static java.lang.System.getProperty;
 
-/** Class the staging areas.
+/** Class the staging areas. The stage also serves as the index of the
+ *  working directory: it remembers the size, time and inode of the files
+ *  it has hashed, so that status only reads the files that changed.
  *  @author Yulin Li
  */
 public class Stage implements Serializable {
+
+    /** The serial version of this class, fixed so that the objects of
+     *  existing repositories stay readable as the class grows. */
+    private static final long serialVersionUID = -795540173307559440L;
     /**HashMap representing the Blobs to be added.
      * key: name of the file
      * value: the id of the blob
@@ -18,6 +26,10 @@ public class Stage implements Serializable {
      * value: the id of the blob
      */
     private HashMap<String, String> removingStage = new HashMap<>();
+    /** What was last seen of the files in the working directory, keyed
+     *  by name. Files may be looked at from several threads at once. */
+    private transient ConcurrentHashMap<String, FileStat> fileStats =
+        new ConcurrentHashMap<>();
 
     /** The current working directory. */
     public static final File CWD = new File(getProperty("user.dir"));
@@ -34,6 +46,73 @@ public class Stage implements Serializable {
     public static final File STAGEFILE = new File(
             MAINFILE.toString() + "/.stage");
 
+    /** An empty stage. */
+    public Stage() {
+    }
+
+    /**
+     * A stage read back from disk.
+     * @param adding the blobs to be added.
+     * @param removing the blobs to be removed.
+     * @param stats what was last seen of the files.
+     */
+    Stage(HashMap<String, String> adding, HashMap<String, String> removing,
+          HashMap<String, FileStat> stats) {
+        addingStage = adding;
+        removingStage = removing;
+        fileStats = new ConcurrentHashMap<>(stats);
+    }
+
+    /**
+     * Returns the id that the file FILE named NAME has as a blob. The file
+     * is only read if it changed since it was last seen, and what is seen
+     * of it is remembered until the stage is next written. Several files
+     * may be looked at at once.
+     * @param name the name of the file.
+     * @param file the file.
+     * @return the id.
+     */
+    public String idOf(String name, File file) {
+        FileStat seen = getFileStats().get(name);
+        if (seen != null && seen.matches(file)) {
+            return seen.getID();
+        }
+        FileStat now = FileStat.of(file);
+        String id = Blob.idOf(file);
+        getFileStats().put(name, now.withID(id));
+        return id;
+    }
+
+    /**
+     * Returns the id that the file named NAME had as a blob when it was
+     * last seen, without looking at the file.
+     * @param name the name of the file.
+     * @return the id, or null if it was not seen.
+     */
+    public String knownID(String name) {
+        FileStat seen = getFileStats().get(name);
+        return seen == null ? null : seen.getID();
+    }
+
+    /**
+     * Forgets what was seen of the file named NAME.
+     * @param name the name of the file.
+     */
+    public void forget(String name) {
+        getFileStats().remove(name);
+    }
+
+    /**
+     * Returns what was last seen of the files in the working directory.
+     * @return the map from names to what was seen of them.
+     */
+    synchronized Map<String, FileStat> getFileStats() {
+        if (fileStats == null) {
+            fileStats = new ConcurrentHashMap<>();
+        }
+        return fileStats;
+    }
+
     /**
      * add the blob to the adding stage.
      * @param name the name of the file.
@@ -61,8 +140,8 @@ public class Stage implements Serializable {
 
     /** Write the stage in disk. */
     public void writeStage() {
-        Utils.writeObject(new File(STAGEFILE.toString()
-                + "/" + "mainStage"), this);
+        WriteBatch.write(new File(STAGEFILE.toString()
+                + "/" + "mainStage"), Codec.encode(this));
     }
 
     /**
@@ -71,7 +150,11 @@ public class Stage implements Serializable {
      * @return the stage object requested.
      */
     public static Stage readStage(String fileName) {
-        return Utils.readObject(new File(STAGEFILE.toString()
-                + "/" + fileName), Stage.class);
+        byte[] bytes = WriteBatch.readContents(new File(STAGEFILE.toString()
+                + "/" + fileName));
+        if (Codec.isEncoded(bytes, Codec.STAGE)) {
+            return Codec.decodeStage(bytes);
+        }
+        return Utils.deserialize(bytes, Stage.class);
     }
 }
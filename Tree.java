@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Class of the trees recording the files of a commit, one tree per
+ *  directory. A tree maps the names in its directory to the ids of their
+ *  blobs, or, for a subdirectory, its name followed by a slash to the id
+ *  of its tree. Trees are addressed by their content, so a directory that
+ *  did not change between two commits is the very same tree in both: a
+ *  new commit only writes the trees on the paths it changes, and two
+ *  commits are compared without looking into the directories they share.
+ *  @author Yulin Li
+ */
+class Tree {
+
+    /** The separator of the names in a path. */
+    static final String SEP = "/";
+
+    /** The id of the tree with no entries. */
+    static final String EMPTY = Utils.sha1(Codec.encode(
+            new Tree(new TreeMap<>())));
+
+    /** The entries of the tree, sorted by name. */
+    private final TreeMap<String, String> _entries;
+
+    /**
+     * A tree of the entries ENTRIES.
+     * @param entries the map from names to ids.
+     */
+    Tree(TreeMap<String, String> entries) {
+        _entries = entries;
+    }
+
+    /**
+     * Returns the entries of this tree.
+     * @return the map from names to ids.
+     */
+    TreeMap<String, String> entries() {
+        return _entries;
+    }
+
+    /**
+     * Returns the tree ID in STORE.
+     * @param store the object store of the repository.
+     * @param id the id of the tree.
+     * @return the tree.
+     */
+    static Tree read(ObjectStore store, String id) {
+        byte[] bytes = store.readBytes(id);
+        if (bytes == null) {
+            throw Utils.error("missing tree %s", id);
+        }
+        return Codec.decodeTree(bytes);
+    }
+
+    /**
+     * Writes the tree of the entries ENTRIES in STORE, unless it is
+     * already there.
+     * @param store the object store of the repository.
+     * @param entries the map from names to ids.
+     * @return the id of the tree.
+     */
+    static String write(ObjectStore store, TreeMap<String, String> entries) {
+        byte[] bytes = Codec.encode(new Tree(entries));
+        String id = Utils.sha1(bytes);
+        if (!store.contains(id)) {
+            store.writeBytes(id, bytes);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the trees of the files FILES in STORE.
+     * @param store the object store of the repository.
+     * @param files the map from paths to blob ids.
+     * @return the id of the root tree.
+     */
+    static String fromFiles(ObjectStore store, Map<String, String> files) {
+        return apply(store, null, files, new TreeSet<>());
+    }
+
+    /**
+     * Returns the id of the tree ROOTID in STORE after adding the files
+     * TOADD to it and removing the files TOREMOVE from it. Only the trees
+     * of the directories holding a change are read and written again.
+     * @param store the object store of the repository.
+     * @param rootID the id of the root tree, or null for no files at all.
+     * @param toAdd the map from the paths added to their blob ids.
+     * @param toRemove the paths removed.
+     * @return the id of the new root tree.
+     */
+    static String apply(ObjectStore store, String rootID,
+                        Map<String, String> toAdd, Set<String> toRemove) {
+        TreeMap<String, String> entries = rootID == null
+            ? new TreeMap<>() : read(store, rootID).entries();
+        HashMap<String, HashMap<String, String>> subAdds = new HashMap<>();
+        HashMap<String, TreeSet<String>> subRemoves = new HashMap<>();
+        for (Map.Entry<String, String> add : toAdd.entrySet()) {
+            String path = add.getKey();
+            int slash = path.indexOf(SEP);
+            if (slash < 0) {
+                entries.put(path, add.getValue());
+            } else {
+                subAdds.computeIfAbsent(path.substring(0, slash + 1),
+                    k -> new HashMap<>())
+                    .put(path.substring(slash + 1), add.getValue());
+            }
+        }
+        for (String path : toRemove) {
+            int slash = path.indexOf(SEP);
+            if (slash < 0) {
+                entries.remove(path);
+            } else {
+                subRemoves.computeIfAbsent(path.substring(0, slash + 1),
+                    k -> new TreeSet<>()).add(path.substring(slash + 1));
+            }
+        }
+        TreeSet<String> dirs = new TreeSet<>(subAdds.keySet());
+        dirs.addAll(subRemoves.keySet());
+        for (String dir : dirs) {
+            String sub = apply(store, entries.get(dir),
+                    subAdds.getOrDefault(dir, new HashMap<>()),
+                    subRemoves.getOrDefault(dir, new TreeSet<>()));
+            if (sub.equals(EMPTY)) {
+                entries.remove(dir);
+            } else {
+                entries.put(dir, sub);
+            }
+        }
+        return write(store, entries);
+    }
+
+    /**
+     * Returns every file under the tree ID in STORE.
+     * @param store the object store of the repository.
+     * @param id the id of the tree.
+     * @return the map from paths to blob ids.
+     */
+    static HashMap<String, String> flatten(ObjectStore store, String id) {
+        HashMap<String, String> files = new HashMap<>();
+        flatten(store, id, "", files);
+        return files;
+    }
+
+    /**
+     * Adds every file under the tree ID in STORE to FILES, with PREFIX in
+     * front of its path.
+     * @param store the object store of the repository.
+     * @param id the id of the tree.
+     * @param prefix the path of the tree.
+     * @param files the map from paths to blob ids.
+     */
+    private static void flatten(ObjectStore store, String id, String prefix,
+                                HashMap<String, String> files) {
+        for (Map.Entry<String, String> entry
+                 : read(store, id).entries().entrySet()) {
+            if (entry.getKey().endsWith(SEP)) {
+                flatten(store, entry.getValue(), prefix + entry.getKey(),
+                        files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the files that differ between the trees FROM and TO in
+     * STORE. Directories whose trees are the same are skipped without
+     * being read.
+     * @param store the object store of the repository.
+     * @param from the id of the first tree, or null for an empty tree.
+     * @param to the id of the second tree, or null for an empty tree.
+     * @return the map from the paths that differ to their blob ids in TO,
+     *         or to null where TO does not have them.
+     */
+    static HashMap<String, String> diff(ObjectStore store, String from,
+                                        String to) {
+        HashMap<String, String> changes = new HashMap<>();
+        diff(store, from, to, "", changes);
+        return changes;
+    }
+
+    /**
+     * Adds the files that differ between the trees FROM and TO in STORE
+     * to CHANGES, with PREFIX in front of their paths.
+     * @param store the object store of the repository.
+     * @param from the id of the first tree, or null.
+     * @param to the id of the second tree, or null.
+     * @param prefix the path of the trees.
+     * @param changes the map from paths to their blob ids in TO.
+     */
+    private static void diff(ObjectStore store, String from, String to,
+                             String prefix, HashMap<String, String> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        TreeMap<String, String> a = from == null
+            ? new TreeMap<>() : read(store, from).entries();
+        TreeMap<String, String> b = to == null
+            ? new TreeMap<>() : read(store, to).entries();
+        TreeSet<String> names = new TreeSet<>(a.keySet());
+        names.addAll(b.keySet());
+        for (String name : names) {
+            String x = a.get(name), y = b.get(name);
+            if (x != null && x.equals(y)) {
+                continue;
+            }
+            if (name.endsWith(SEP)) {
+                diff(store, x, y, prefix + name, changes);
+            } else {
+                changes.put(prefix + name, y);
+            }
+        }
+    }
+
+    /**
+     * Copies the tree ID, and every tree and blob under it, from the
+     * object store FROM to the object store TO. Trees TO already has are
+     * skipped along with everything under them.
+     * @param from the object store holding the tree.
+     * @param to the object store receiving it.
+     * @param id the id of the tree.
+     */
+    static void copy(ObjectStore from, ObjectStore to, String id) {
+        if (!to.wants(id)) {
+            return;
+        }
+        byte[] bytes = from.readBytes(id);
+        for (Map.Entry<String, String> entry
+                 : Codec.decodeTree(bytes).entries().entrySet()) {
+            if (entry.getKey().endsWith(SEP)) {
+                copy(from, to, entry.getValue());
+            } else {
+                Blob.copy(from, to, entry.getValue());
+            }
+        }
+        to.writeBytes(id, bytes);
+    }
+}
@@ -4,6 +4,26 @@ import ucb.junit.textui;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
 /** The suite of all JUnit tests for the gitlet package.
  *  @author
  */
@@ -20,6 +40,1216 @@ public class UnitTest {
     public void placeholderTest() {
     }
 
-}
+    /** Records written to a pack are read back once it is reopened,
+     *  without an index. */
+    @Test
+    public void packRoundTripTest() {
+        File root = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        store.writeBytes(idOf("a"), bytes("alpha"));
+        store.writeBytes(idOf("b"), bytes("beta"));
+        ObjectStore.closeAll();
+        store = ObjectStore.open(root);
+        assertTrue(store.contains(idOf("a")));
+        assertArrayEquals(bytes("alpha"), store.readBytes(idOf("a")));
+        assertArrayEquals(bytes("beta"), store.readBytes(idOf("b")));
+        assertNull(store.readBytes(idOf("c")));
+        ObjectStore.closeAll();
+    }
+
+    /** A torn record at the end of the pack is cut off before the next
+     *  record is appended, so that record can be read back. */
+    @Test
+    public void packTornTailTest() throws IOException {
+        File root = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        store.writeBytes(idOf("a"), bytes("alpha"));
+        ObjectStore.closeAll();
+        File pack = packOf(root);
+        long whole = pack.length();
+        try (RandomAccessFile out = new RandomAccessFile(pack, "rw")) {
+            out.seek(whole);
+            out.write(new byte[ObjectStore.ID_BYTES + Integer.BYTES]);
+            out.write(bytes("garbage"));
+        }
+        store = ObjectStore.open(root);
+        assertArrayEquals(bytes("alpha"), store.readBytes(idOf("a")));
+        store.writeBytes(idOf("b"), bytes("beta"));
+        ObjectStore.closeAll();
+        store = ObjectStore.open(root);
+        assertArrayEquals(bytes("alpha"), store.readBytes(idOf("a")));
+        assertArrayEquals(bytes("beta"), store.readBytes(idOf("b")));
+        assertEquals(whole + ObjectStore.ID_BYTES + Integer.BYTES + 4,
+                pack.length());
+        ObjectStore.closeAll();
+    }
+
+    /** A streamed record never closed is not taken for an object, and
+     *  does not hide the records appended after it. */
+    @Test
+    public void packUnfinishedStreamTest() throws IOException {
+        File root = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        store.writeBytes(idOf("a"), bytes("alpha"));
+        OutputStream record = store.newRecord(idOf("big"));
+        record.write(new byte[3 * ObjectStore.CHUNK]);
+        ObjectStore.closeAll();
+        store = ObjectStore.open(root);
+        assertFalse(store.contains(idOf("big")));
+        store.writeBytes(idOf("b"), bytes("beta"));
+        ObjectStore.closeAll();
+        store = ObjectStore.open(root);
+        assertArrayEquals(bytes("alpha"), store.readBytes(idOf("a")));
+        assertArrayEquals(bytes("beta"), store.readBytes(idOf("b")));
+        assertFalse(store.contains(idOf("big")));
+        ObjectStore.closeAll();
+    }
+
+    /** Messages are still found by their text once the log has been
+     *  merged into the index. */
+    @Test
+    public void messageIndexAfterMergeTest() {
+        File root = tempDir();
+        MessageIndex index = new MessageIndex(root);
+        String padding = "x".repeat(1500);
+        for (int i = 0; i < 50; i += 1) {
+            index.add(idOf("c" + i), "alpha beta gamma delta " + i + " "
+                      + padding);
+        }
+        index.flush();
+        assertTrue(WriteBatch.length(
+                new File(root, MessageIndex.INDEX_NAME)) > 0);
+        assertEquals(0, WriteBatch.length(
+                new File(root, MessageIndex.LOG_NAME)));
+        MessageIndex read = new MessageIndex(root);
+        assertEquals(List.of(idOf("c7")),
+                read.containing("beta gamma delta 7"));
+        assertEquals(50, read.withWord("GAMMA").size());
+        WriteBatch.discard();
+    }
+
+    /** Commits flushed by successive commands are appended to the log and
+     *  all found again. */
+    @Test
+    public void messageLogAppendTest() {
+        File root = tempDir();
+        File log = new File(root, MessageIndex.LOG_NAME);
+        MessageIndex index = new MessageIndex(root);
+        index.add(idOf("a"), "first commit");
+        index.flush();
+        long first = WriteBatch.length(log);
+        index.add(idOf("b"), "second commit");
+        index.flush();
+        assertTrue(WriteBatch.length(log) > first);
+        MessageIndex read = new MessageIndex(root);
+        assertEquals(List.of(idOf("a")), read.withMessage("first commit"));
+        assertEquals(List.of(idOf("a"), idOf("b")), read.withWord("Commit"));
+        assertEquals(List.of(idOf("b")), read.containing("second com"));
+        WriteBatch.discard();
+    }
+
+    /** add takes directories and globs, and files nested in tracked
+     *  directories are only untracked if they themselves are. */
+    @Test
+    public void addDirectoryAndGlobTest() {
+        File dir = repo();
+        write(dir, "a.txt", "a");
+        write(dir, "d1/t.txt", "t");
+        write(dir, "d1/s.md", "s");
+        gitlet(dir, "add", "d1/*.md");
+        assertTrue(gitlet(dir, "status").contains(
+                "=== Staged Files ===\nd1/s.md\n\n"));
+        gitlet(dir, "add", "d1", "a.txt");
+        gitlet(dir, "commit", "nested");
+        assertTrue(gitlet(dir, "status").endsWith(
+                "=== Untracked Files ===\n\n"));
+        write(dir, "d1/u.txt", "u");
+        assertTrue(gitlet(dir, "status").endsWith(
+                "=== Untracked Files ===\nd1/u.txt\n\n"));
+        assertEquals("File does not exist.\n",
+                gitlet(dir, "add", "nothing/*.txt"));
+    }
+
+    /** Checking out a commit with a file under a directory is refused
+     *  while an untracked file stands where the directory goes. */
+    @Test
+    public void untrackedFileInPlaceOfDirectoryTest() {
+        File dir = repo();
+        write(dir, "a.txt", "a");
+        gitlet(dir, "add", "a.txt");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+        write(dir, "d1/t.txt", "t");
+        gitlet(dir, "add", "d1");
+        gitlet(dir, "commit", "nested");
+        gitlet(dir, "checkout", "other");
+        assertFalse(new File(dir, "d1").exists());
+        write(dir, "d1", "blocker");
+        assertEquals("There is an untracked file in the way; delete it, "
+                + "or add and commit it first.\n",
+                gitlet(dir, "checkout", "master"));
+        assertEquals("blocker", read(dir, "d1"));
+    }
+
+    /** A checkout whose last rename fails leaves every working file as it
+     *  was, with no backup or temporary file behind. */
+    @Test
+    public void checkoutRollBackTest() {
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        String alpha = storeBlob(store, dir, "alpha");
+        write(dir, "a.txt", "old");
+        write(dir, "b.txt", "gone");
+        write(dir, "z/inside.txt", "in the way");
+        Checkout checkout = new Checkout(store, dir);
+        checkout.write("a.txt", alpha);
+        checkout.delete("b.txt");
+        checkout.write("z", alpha);
+        try {
+            checkout.apply();
+            fail("a file was renamed over a directory");
+        } catch (IllegalArgumentException excp) {
+            assertEquals("old", read(dir, "a.txt"));
+            assertEquals("gone", read(dir, "b.txt"));
+            assertEquals("in the way", read(dir, "z/inside.txt"));
+            assertEquals(List.of(".blob", "a.txt", "b.txt", "z"),
+                    sortedList(dir));
+        }
+        ObjectStore.closeAll();
+    }
+
+    /** Files merged in get the permissions of any new file, and the
+     *  temporary files and backups a stopped checkout leaves behind are
+     *  not listed as untracked. */
+    @Test
+    public void checkoutModeAndScratchFilesTest() throws IOException {
+        File dir = repo();
+        write(dir, "a.txt", "a0");
+        write(dir, "b.txt", "b0");
+        gitlet(dir, "add", "a.txt", "b.txt");
+        gitlet(dir, "commit", "c0");
+        gitlet(dir, "branch", "other");
+        write(dir, "c.txt", "c");
+        gitlet(dir, "add", "c.txt");
+        gitlet(dir, "commit", "master");
+        gitlet(dir, "checkout", "other");
+        write(dir, "b.txt", "b1");
+        gitlet(dir, "add", "b.txt");
+        gitlet(dir, "commit", "other");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "other"));
+        write(dir, "new.txt", "new");
+        assertEquals(
+                Files.getPosixFilePermissions(new File(dir, "new.txt")
+                        .toPath()),
+                Files.getPosixFilePermissions(new File(dir, "b.txt")
+                        .toPath()));
+        new File(dir, "new.txt").delete();
+        write(dir, ".gitlet-1f.tmp", "");
+        write(dir, "sub/.gitlet-2e.bak", "");
+        assertTrue(gitlet(dir, "status")
+                .endsWith("=== Untracked Files ===\n\n"));
+    }
+
+    /** A merge whose changes to the working directory fail part way
+     *  leaves its conflict files as they were, too. */
+    @Test
+    public void mergeConflictRollBackTest() throws IOException {
+        File dir = repo();
+        write(dir, "f.txt", "base");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+        write(dir, "f.txt", "mine");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "mine");
+        gitlet(dir, "checkout", "other");
+        write(dir, "f.txt", "theirs");
+        write(dir, "d/n.txt", "n");
+        gitlet(dir, "add", "f.txt", "d/n.txt");
+        gitlet(dir, "commit", "theirs");
+        gitlet(dir, "checkout", "master");
+        Files.createSymbolicLink(new File(dir, "d").toPath(),
+                new File(dir, "missing/d").toPath());
+        assertTrue(gitlet(dir, "merge", "other")
+                .contains("cannot make directory"));
+        assertEquals("mine", read(dir, "f.txt"));
+        assertEquals(List.of(".gitlet", "d", "f.txt"), sortedList(dir));
+        assertTrue(gitlet(dir, "log").contains("\nmine\n"));
+        assertFalse(gitlet(dir, "log").contains("Merged other"));
+    }
+
+    /** Deleting the last file of a directory removes the directory, and
+     *  those holding it, but not the directories that still hold files. */
+    @Test
+    public void checkoutRemovesEmptiedDirectoriesTest() {
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        String alpha = storeBlob(store, dir, "alpha");
+        write(dir, "d1/d2/t.txt", "t");
+        write(dir, "d3/d4/u.txt", "u");
+        write(dir, "d3/v.txt", "v");
+        Checkout checkout = new Checkout(store, dir);
+        checkout.delete("d1/d2/t.txt");
+        checkout.delete("d3/d4/u.txt");
+        checkout.write("d1/d2/t.txt.new/w.txt", alpha);
+        checkout.write("e.txt", alpha);
+        checkout.apply();
+        assertEquals("alpha", read(dir, "d1/d2/t.txt.new/w.txt"));
+        assertEquals("alpha", read(dir, "e.txt"));
+        assertFalse(new File(dir, "d1/d2/t.txt").exists());
+        assertFalse(new File(dir, "d3/d4").exists());
+        assertEquals(List.of("v.txt"), sortedList(new File(dir, "d3")));
+        ObjectStore.closeAll();
+    }
+
+    /** The journal of a command that died after writing it is replayed by
+     *  the next command, which then deletes it. */
+    @Test
+    public void writeBatchRecoveryTest() throws IOException {
+        File dir = repo();
+        File root = new File(dir, ".gitlet");
+        File written = new File(root, "written");
+        File appended = new File(root, "appended");
+        Utils.writeContents(written, bytes("old"));
+        Utils.writeContents(appended, bytes("head-torn"));
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(new File(root, "batch")))) {
+            out.writeInt(1);
+            out.writeUTF(written.getAbsolutePath());
+            out.writeInt(3);
+            out.write(bytes("new"));
+            out.writeInt(1);
+            out.writeUTF(appended.getAbsolutePath());
+            out.writeLong(4);
+            out.writeInt(5);
+            out.write(bytes("-tail"));
+        }
+        gitlet(dir, "status");
+        assertEquals("new", read(root, "written"));
+        assertEquals("head-tail", read(root, "appended"));
+        assertFalse(new File(root, "batch").exists());
+        assertFalse(new File(root, "written.tmp").exists());
+    }
+
+    /** Merges split at the best common ancestor, reached through the
+     *  second parent of an earlier merge, and not at the initial commit
+     *  or an older common ancestor, so the changes of the given branch
+     *  are taken without conflict. */
+    @Test
+    public void mergeBaseTest() {
+        File dir = repo();
+        write(dir, "f.txt", "v1");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c1");
+        gitlet(dir, "branch", "other");
+        write(dir, "h.txt", "master");
+        gitlet(dir, "add", "h.txt");
+        gitlet(dir, "commit", "c2");
+        gitlet(dir, "checkout", "other");
+        write(dir, "f.txt", "other");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c3");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "other"));
+        assertEquals("other", read(dir, "f.txt"));
+        assertEquals("master", read(dir, "h.txt"));
+        gitlet(dir, "checkout", "other");
+        write(dir, "f.txt", "other2");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c4");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "other"));
+        assertEquals("other2", read(dir, "f.txt"));
+        gitlet(dir, "checkout", "other");
+        assertEquals("Current branch fast-forwarded.\n",
+                gitlet(dir, "merge", "master"));
+        assertEquals("master", read(dir, "h.txt"));
+        assertEquals("Given branch is an ancestor of the current branch.\n",
+                gitlet(dir, "merge", "other"));
+    }
+
+    /** A file changed only on the given branch is merged as it is there,
+     *  in the working directory and in the merge commit, without a
+     *  conflict. */
+    @Test
+    public void mergeOneSidedChangeTest() {
+        File dir = repo();
+        write(dir, "f.txt", "v1");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c1");
+        gitlet(dir, "branch", "other");
+        write(dir, "h.txt", "master");
+        gitlet(dir, "add", "h.txt");
+        gitlet(dir, "commit", "c2");
+        gitlet(dir, "checkout", "other");
+        write(dir, "f.txt", "other");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c3");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "other"));
+        assertEquals("other", read(dir, "f.txt"));
+        assertTrue(gitlet(dir, "status").contains(
+                "=== Modifications Not Staged For Commit ===\n\n"));
+    }
+
+    /** Of the two merge bases of a criss-cross merge, either is taken
+     *  rather than an older common ancestor, so a file both bases have and
+     *  the current branch removed stays removed. */
+    @Test
+    public void crissCrossMergeTest() {
+        File dir = repo();
+        write(dir, "d.txt", "d0");
+        gitlet(dir, "add", "d.txt");
+        gitlet(dir, "commit", "c0");
+        gitlet(dir, "branch", "other");
+        write(dir, "g.txt", "g");
+        write(dir, "y.txt", "y");
+        gitlet(dir, "add", "g.txt", "y.txt");
+        gitlet(dir, "commit", "m1");
+        gitlet(dir, "branch", "m1");
+        gitlet(dir, "checkout", "other");
+        write(dir, "g.txt", "g");
+        write(dir, "x.txt", "x");
+        gitlet(dir, "add", "g.txt", "x.txt");
+        gitlet(dir, "commit", "o1");
+        gitlet(dir, "branch", "o1");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "o1"));
+        gitlet(dir, "checkout", "other");
+        assertEquals("", gitlet(dir, "merge", "m1"));
+        gitlet(dir, "checkout", "master");
+        gitlet(dir, "rm", "g.txt");
+        gitlet(dir, "commit", "m3");
+        gitlet(dir, "checkout", "other");
+        write(dir, "d.txt", "d2");
+        gitlet(dir, "add", "d.txt");
+        gitlet(dir, "commit", "o3");
+        gitlet(dir, "checkout", "master");
+        assertEquals("", gitlet(dir, "merge", "other"));
+        assertEquals("d2", read(dir, "d.txt"));
+        assertEquals("x", read(dir, "x.txt"));
+        assertEquals("y", read(dir, "y.txt"));
+        assertFalse(new File(dir, "g.txt").exists());
+    }
+
+    /** A bitmap with sparse and dense chunks reads back as it was
+     *  written, and combines with another chunk by chunk. */
+    @Test
+    public void bitmapRoundTripTest() {
+        Bitmap bitmap = new Bitmap();
+        for (int x = 0; x < 10000; x += 1) {
+            bitmap.add(x);
+        }
+        bitmap.add(70000);
+        bitmap.add(1 << 30);
+        bitmap.add(5);
+        assertEquals(10002, bitmap.cardinality());
+        ByteBuffer out = ByteBuffer.allocate(bitmap.encodedLength());
+        bitmap.writeTo(out);
+        assertFalse(out.hasRemaining());
+        Bitmap read = Bitmap.readFrom(out.flip());
+        assertEquals(bitmap.cardinality(), read.cardinality());
+        assertTrue(read.contains(9999));
+        assertTrue(read.contains(70000));
+        assertTrue(read.contains(1 << 30));
+        assertFalse(read.contains(10000));
+        assertFalse(read.contains(70001));
+        List<Integer> written = new ArrayList<>();
+        List<Integer> readBack = new ArrayList<>();
+        bitmap.forEach(written::add);
+        read.forEach(readBack::add);
+        assertEquals(written, readBack);
+        Bitmap other = new Bitmap();
+        other.add(3);
+        other.add(70000);
+        other.add(200000);
+        Bitmap rest = read.andNot(other);
+        assertEquals(10000, rest.cardinality());
+        assertFalse(rest.contains(3));
+        assertFalse(rest.contains(70000));
+        read.or(other);
+        assertEquals(10003, read.cardinality());
+        assertTrue(read.contains(200000));
+    }
+
+    /** Ancestry answered from the reachability bitmaps of branch heads
+     *  agrees with the history, and push sends what the remote lacks. */
+    @Test
+    public void bitmapAncestryTest() {
+        File dir = repo();
+        write(dir, "f.txt", "v1");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c1");
+        gitlet(dir, "branch", "other");
+        write(dir, "f.txt", "v2");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "c2");
+        assertEquals("Given branch is an ancestor of the current branch.\n",
+                gitlet(dir, "merge", "other"));
+        gitlet(dir, "checkout", "other");
+        assertEquals("Current branch fast-forwarded.\n",
+                gitlet(dir, "merge", "master"));
+        assertEquals("v2", read(dir, "f.txt"));
+        File remote = repo();
+        gitlet(dir, "add-remote", "r", remote.getAbsolutePath()
+                + File.separator + ".gitlet");
+        assertEquals("", gitlet(dir, "push", "r", "master"));
+        assertTrue(gitlet(remote, "log").contains("\nc2\n"));
+        File clone = repo();
+        gitlet(clone, "add-remote", "r", dir.getAbsolutePath()
+                + File.separator + ".gitlet");
+        assertEquals("fetch: 6 objects transferred, 1 already present\n",
+                gitlet(clone, "fetch", "r", "master"));
+        gitlet(clone, "checkout", "r/master");
+        assertEquals("v2", read(clone, "f.txt"));
+    }
+
+    /** The watcher cuts off the part of its journal that queries have
+     *  read, and status still sees every change after that. */
+    @Test
+    public void watchJournalCompactedTest() throws IOException,
+                                                   InterruptedException {
+        File dir = repo();
+        File journal = new File(dir, ".gitlet/.stage/"
+                + Watcher.JOURNAL_NAME);
+        Process watcher = command(dir, "watch").start();
+        try {
+            for (int k = 0; k < 200 && journal.length() == 0; k += 1) {
+                Thread.sleep(10);
+            }
+            gitlet(dir, "status");
+            String name = "a-rather-long-file-name-for-the-journal-";
+            for (int i = 0; i < 200; i += 1) {
+                write(dir, name + i, "x");
+            }
+            assertTrue(gitlet(dir, "status").contains(name + "199\n"));
+            long written = journal.length();
+            assertTrue(written > Watcher.COMPACT);
+            write(dir, "last.txt", "x");
+            String status = gitlet(dir, "status");
+            assertTrue(status.contains("last.txt\n"));
+            assertTrue(status.contains(name + "0\n"));
+            assertTrue(journal.length() < written / 2);
+            String header = new String(Files.readAllBytes(journal.toPath()),
+                    StandardCharsets.UTF_8).split("\n")[0];
+            assertFalse(header.endsWith(" 0"));
+            new File(dir, name + "0").delete();
+            assertFalse(gitlet(dir, "status").contains(name + "0\n"));
+        } finally {
+            watcher.destroy();
+            watcher.waitFor();
+        }
+    }
+
+    /** Checked out as hard links, working files share a read-only copy of
+     *  their blob, which is removed once no working file links to it. */
+    @Test
+    public void linkedCheckoutPrunesCopiesTest() throws IOException {
+        File dir = repo();
+        File links = new File(dir, ".gitlet/" + Checkout.LINKS_DIR);
+        write(dir, "f.txt", "v1");
+        write(dir, "g.txt", "v1");
+        gitlet(dir, "add", "f.txt", "g.txt");
+        gitlet(dir, "commit", "c1");
+        gitlet(dir, "branch", "other");
+        write(dir, "f.txt", "v2");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "rm", "g.txt");
+        gitlet(dir, "commit", "c2");
+        linked(dir, "checkout", "other");
+        assertEquals("v1", read(dir, "f.txt"));
+        assertEquals(3, Files.getAttribute(
+                new File(dir, "f.txt").toPath(), "unix:nlink"));
+        assertEquals(1, countFiles(links));
+        linked(dir, "checkout", "master");
+        assertEquals("v2", read(dir, "f.txt"));
+        assertFalse(new File(dir, "g.txt").exists());
+        assertEquals(1, countFiles(links));
+        assertEquals(2, Files.getAttribute(
+                new File(dir, "f.txt").toPath(), "unix:nlink"));
+    }
+
+    /**
+     * Runs gitlet as by gitlet, checking files out as hard links.
+     * @param dir the working directory.
+     * @param args the command and its operands.
+     * @return what it printed.
+     */
+    static String linked(File dir, String... args) {
+        ProcessBuilder builder = command(dir, args);
+        builder.command().add(1, "-D" + Checkout.LINK_PROPERTY + "=true");
+        return output(builder);
+    }
+
+    /**
+     * Returns the number of files under DIR, at any depth.
+     * @param dir the directory.
+     * @return the number.
+     */
+    static int countFiles(File dir) {
+        File[] files = dir.listFiles();
+        int count = 0;
+        for (File file : files == null ? new File[0] : files) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    /** A compressible blob takes a fraction of its length in the pack, and
+     *  is inflated back into a file byte for byte. */
+    @Test
+    public void deflatedBlobRoundTripTest() {
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        String text = "all work and no play makes jack a dull boy\n"
+            .repeat(20000);
+        String id = storeBlob(store, dir, text);
+        assertTrue(packOf(root).length() < text.length() / 10);
+        File out = new File(dir, "out.txt");
+        Blob.writeContentTo(store, id, out);
+        assertEquals(text, read(dir, "out.txt"));
+        ObjectStore.closeAll();
+        store = ObjectStore.open(root);
+        Blob.writeContentTo(store, id, out);
+        assertEquals(text, read(dir, "out.txt"));
+        ObjectStore.closeAll();
+    }
+
+    /** Binary content spanning several chunks, not valid as text, is
+     *  streamed into the store and out again exactly. */
+    @Test
+    public void binaryBlobStreamTest() throws IOException {
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        byte[] content = new byte[3 * ObjectStore.CHUNK + 17];
+        new Random(42).nextBytes(content);
+        content[0] = (byte) 0xff;
+        File file = new File(dir, "data.bin");
+        Files.write(file.toPath(), content);
+        Blob blob = Blob.fromFile("data.bin", file);
+        blob.writeBlob(store);
+        assertEquals(Utils.sha1(content), blob.getID());
+        assertArrayEquals(content,
+                Blob.readBlob(store, blob.getID()).getContent());
+        File out = new File(dir, "out.bin");
+        Blob.writeContentTo(store, blob.getID(), out);
+        assertArrayEquals(content, Files.readAllBytes(out.toPath()));
+        ObjectStore.closeAll();
+    }
 
+    /** Files with the same content share one blob, whatever their names,
+     *  and it is stored once. */
+    @Test
+    public void contentAddressingTest() {
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        write(dir, "a.txt", "same");
+        write(dir, "sub/b.md", "same");
+        Blob a = Blob.fromFile("a.txt", new File(dir, "a.txt"));
+        Blob b = Blob.fromFile("sub/b.md", new File(dir, "sub/b.md"));
+        assertEquals(Utils.sha1(bytes("same")), a.getID());
+        assertEquals(a.getID(), b.getID());
+        a.writeBlob(store);
+        long length = packOf(root).length();
+        b.writeBlob(store);
+        assertEquals(length, packOf(root).length());
+        ObjectStore.closeAll();
+    }
+
+    /** A repository of an older format has the files that format lacks
+     *  built by the next command, which then records the current one. */
+    @Test
+    public void migrationTest() {
+        File dir = repo();
+        File root = new File(dir, ".gitlet");
+        write(dir, "f.txt", "v1");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "first version");
+        write(dir, "f.txt", "v2");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "second version");
+        String log = gitlet(dir, "log");
+        new File(root, CommitGraph.GRAPH_NAME).delete();
+        new File(root, MessageIndex.INDEX_NAME).delete();
+        new File(root, MessageIndex.LOG_NAME).delete();
+        new File(new File(root, ObjectStore.PACK_DIR),
+                ObjectStore.BITMAP_NAME).delete();
+        write(root, "format", "2\n");
+        assertEquals(2, gitlet(dir, "find", "--word", "version").split("\n")
+                .length);
+        assertEquals(Migration.FORMAT + "\n", read(root, "format"));
+        assertTrue(new File(root, CommitGraph.GRAPH_NAME).isFile());
+        assertTrue(new File(new File(root, ObjectStore.PACK_DIR),
+                ObjectStore.BITMAP_NAME).isFile());
+        assertEquals(log, gitlet(dir, "log"));
+        String first = log.split("\n")[6].substring("commit ".length());
+        assertEquals("", gitlet(dir, "checkout", first.substring(0, 8), "--",
+                "f.txt"));
+        assertEquals("v1", read(dir, "f.txt"));
+    }
+
+    /** A delta turns its base into its target, whatever was inserted,
+     *  deleted or changed, and is short when little changed. */
+    @Test
+    public void deltaRoundTripTest() {
+        Random random = new Random(7);
+        byte[] base = new byte[50000];
+        random.nextBytes(base);
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        edited.write(base, 0, 10000);
+        edited.writeBytes(bytes("inserted"));
+        edited.write(base, 12000, 30000);
+        edited.write(base, 45000, 5000);
+        edited.writeBytes(bytes("appended"));
+        byte[] target = edited.toByteArray();
+        byte[] delta = Delta.diff(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertTrue(delta.length < 200);
+        byte[][] cases = {new byte[0], bytes("short"), base};
+        for (byte[] from : cases) {
+            for (byte[] to : cases) {
+                assertArrayEquals(to, Delta.apply(from, Delta.diff(from, to)));
+            }
+        }
+        File root = tempDir();
+        File dir = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        File file = new File(dir, "data.bin");
+        Utils.writeContents(file, base);
+        Blob first = Blob.fromFile("data.bin", file);
+        first.writeBlob(store);
+        long length = packOf(root).length();
+        Utils.writeContents(file, target);
+        Blob second = Blob.fromFile("data.bin", file);
+        second.writeBlob(store, first.getID());
+        assertTrue(packOf(root).length() - length < 1000);
+        assertArrayEquals(target,
+                Blob.readBlob(store, second.getID()).getContent());
+        ObjectStore.closeAll();
+    }
+
+    /** Commits, trees, stages, branches, remotes and the message index
+     *  decode to what was encoded. */
+    @Test
+    public void codecRoundTripTest() {
+        HashMap<String, String> blobs = new HashMap<>();
+        blobs.put("a.txt", idOf("a"));
+        blobs.put("d/b.txt", idOf("b"));
+        Commit flat = new Commit(idOf("c1"), "a message, with \u00fcn\u00efcode",
+                "Sat Oct 17 17:00:00 2026 +0000", idOf("p"), null, null,
+                blobs);
+        Commit read = Codec.decodeCommit(Codec.encode(flat));
+        assertEquals(flat.getID(), read.getID());
+        assertEquals(flat.getMsg(), read.getMsg());
+        assertEquals(flat.getDate(), read.getDate());
+        assertEquals(idOf("p"), read.getParentID());
+        assertNull(read.getOtherParentID());
+        assertNull(read.getTreeID());
+        assertEquals(blobs, read.getCurrBlobs());
+        Commit merge = new Commit(idOf("c2"), "merge", flat.getDate(),
+                idOf("p"), idOf("q"), idOf("t"), null);
+        read = Codec.decodeCommit(Codec.encode(merge));
+        assertEquals(idOf("q"), read.getOtherParentID());
+        assertEquals(idOf("t"), read.getTreeID());
+        assertTrue(Codec.isEncoded(Codec.encode(merge), Codec.COMMIT));
+        assertFalse(Codec.isEncoded(Codec.encode(merge), Codec.TREE));
+        TreeMap<String, String> entries = new TreeMap<>(blobs);
+        assertEquals(entries, Codec.decodeTree(Codec.encode(
+                new Tree(entries))).entries());
+        HashMap<String, FileStat> stats = new HashMap<>();
+        stats.put("a.txt", new FileStat(1, 2, 3, idOf("a"), 4));
+        Stage stage = Codec.decodeStage(Codec.encode(new Stage(blobs,
+                new HashMap<>(Map.of("gone", idOf("g"))), stats)));
+        assertEquals(blobs, stage.getAddingStage());
+        assertEquals(idOf("g"), stage.getRemovingStage().get("gone"));
+        FileStat stat = stage.getFileStats().get("a.txt");
+        assertEquals(idOf("a"), stat.getID());
+        assertEquals(1, stat.getSize());
+        assertEquals(2, stat.getMtime());
+        assertEquals(3, stat.getInode());
+        assertEquals(4, stat.getChecked());
+        HashMap<String, String> branches = new HashMap<>();
+        branches.put("master", idOf("c1"));
+        branches.put("r/feature", idOf("c2"));
+        assertEquals(branches,
+                Codec.decodeBranches(Codec.encodeBranches(branches)));
+        HashMap<String, File> remotes = new HashMap<>();
+        remotes.put("origin", new File("../other/.gitlet"));
+        assertEquals(remotes,
+                Codec.decodeRemotes(Codec.encodeRemotes(remotes)));
+        LinkedHashMap<String, LinkedHashSet<String>> messages =
+            new LinkedHashMap<>();
+        messages.put("fix it", new LinkedHashSet<>(List.of(idOf("c1"),
+                idOf("c2"))));
+        HashMap<String, LinkedHashSet<String>> words = new HashMap<>();
+        words.put("fix", new LinkedHashSet<>(List.of(idOf("c2"),
+                idOf("c1"))));
+        LinkedHashMap<String, LinkedHashSet<String>> messagesRead =
+            new LinkedHashMap<>();
+        HashMap<String, LinkedHashSet<String>> wordsRead = new HashMap<>();
+        Codec.decodeMessages(Codec.encodeMessages(messages, words),
+                messagesRead, wordsRead);
+        assertEquals(messages, messagesRead);
+        assertEquals(List.of(idOf("c2"), idOf("c1")),
+                new ArrayList<>(wordsRead.get("fix")));
+    }
+
+    /** Trees flatten back to their files, a change rewrites only the trees
+     *  above it, and the diff of two trees is the files that differ. */
+    @Test
+    public void treeSharingTest() {
+        File root = tempDir();
+        ObjectStore store = ObjectStore.open(root);
+        HashMap<String, String> files = new HashMap<>();
+        files.put("README", idOf("readme"));
+        files.put("lib/a.java", idOf("a"));
+        files.put("lib/deep/b.java", idOf("b"));
+        files.put("src/c.java", idOf("c"));
+        String first = Tree.fromFiles(store, files);
+        assertEquals(files, Tree.flatten(store, first));
+        String second = Tree.apply(store, first,
+                Map.of("src/c.java", idOf("c2"), "src/new.java", idOf("n")),
+                new TreeSet<>(List.of("README")));
+        HashMap<String, String> expected = new HashMap<>(files);
+        expected.remove("README");
+        expected.put("src/c.java", idOf("c2"));
+        expected.put("src/new.java", idOf("n"));
+        assertEquals(expected, Tree.flatten(store, second));
+        TreeMap<String, String> before = Tree.read(store, first).entries();
+        TreeMap<String, String> after = Tree.read(store, second).entries();
+        assertEquals(before.get("lib/"), after.get("lib/"));
+        assertFalse(before.get("src/").equals(after.get("src/")));
+        HashMap<String, String> diff = Tree.diff(store, first, second);
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("README", null);
+        changes.put("src/c.java", idOf("c2"));
+        changes.put("src/new.java", idOf("n"));
+        assertEquals(changes, diff);
+        assertEquals(first, Tree.fromFiles(store, files));
+        ObjectStore.closeAll();
+    }
+
+    /** Loose objects kept flat are still found, and are moved into the
+     *  subdirectory named by the start of their id by shardLoose. */
+    @Test
+    public void looseShardingTest() {
+        File root = tempDir();
+        File commits = new File(root, ObjectStore.COMMITS);
+        String id = idOf("loose");
+        write(commits, id, "object");
+        write(commits, "not-an-id", "other");
+        ObjectStore store = ObjectStore.open(root);
+        assertEquals(new File(commits, id), store.looseFile(id,
+                ObjectStore.COMMITS));
+        assertTrue(store.contains(id, ObjectStore.COMMITS));
+        store.shardLoose(ObjectStore.COMMITS);
+        File sharded = new File(new File(commits,
+                id.substring(0, ObjectStore.FANOUT)),
+                id.substring(ObjectStore.FANOUT));
+        assertTrue(sharded.isFile());
+        assertFalse(new File(commits, id).exists());
+        assertTrue(new File(commits, "not-an-id").isFile());
+        assertEquals(sharded, store.looseFile(id, ObjectStore.COMMITS));
+        assertTrue(store.contains(id, ObjectStore.COMMITS));
+        assertFalse(store.contains(idOf("missing"), ObjectStore.COMMITS));
+        ObjectStore.closeAll();
+    }
+
+    /** The cache drops the entries used least recently once it is full,
+     *  never keeps an entry heavier than itself, and drops commits alone
+     *  when asked. */
+    @Test
+    public void objectCacheEvictionTest() {
+        long half = ObjectCache.CAPACITY / 2;
+        ObjectCache.put("cache-a", "a", half);
+        ObjectCache.put("cache-b", "b", half);
+        assertEquals("a", ObjectCache.get("cache-a"));
+        ObjectCache.put("cache-c", "c", 1);
+        assertNull(ObjectCache.get("cache-b"));
+        assertEquals("a", ObjectCache.get("cache-a"));
+        assertEquals("c", ObjectCache.get("cache-c"));
+        ObjectCache.put("cache-huge", "huge", ObjectCache.CAPACITY + 1);
+        assertNull(ObjectCache.get("cache-huge"));
+        assertEquals("a", ObjectCache.get("cache-a"));
+        ObjectCache.put("/repo/.gitlet:" + idOf("c"), "commit", 1);
+        ObjectCache.dropCommits();
+        assertNull(ObjectCache.get("/repo/.gitlet:" + idOf("c")));
+        assertEquals("c", ObjectCache.get("cache-c"));
+        long hits = ObjectCache.hits();
+        ObjectCache.get("cache-c");
+        assertEquals(hits + 1, ObjectCache.hits());
+    }
+
+    /** A stat entry is not trusted while its file may still change within
+     *  the same tick, and stops matching once the file is changed. */
+    @Test
+    public void racyFileStatTest() throws IOException {
+        File dir = tempDir();
+        write(dir, "f.txt", "one");
+        File file = new File(dir, "f.txt");
+        FileStat fresh = FileStat.of(file).withID(idOf("one"));
+        assertFalse(fresh.matches(file));
+        FileStat trusted = new FileStat(fresh.getSize(), fresh.getMtime(),
+                fresh.getInode(), fresh.getID(),
+                fresh.getMtime() + FileStat.RACY_WINDOW);
+        assertTrue(trusted.matches(file));
+        write(dir, "f.txt", "two");
+        file.setLastModified(file.lastModified() - 10000);
+        assertFalse(trusted.matches(file));
+        FileStat old = FileStat.of(file);
+        assertTrue(old.matches(file));
+        assertFalse(old.matches(new File(dir, "missing.txt")));
+    }
+
+    /** Mapping in parallel keeps every result that is not null, each with
+     *  its own item. */
+    @Test
+    public void parallelMapTest() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 1) {
+            items.add(i);
+        }
+        Map<Integer, Integer> squares =
+            Parallel.map(items, i -> i % 2 == 0 ? i * i : null);
+        assertEquals(500, squares.size());
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i * i), squares.get(i));
+        }
+        assertFalse(squares.containsKey(1));
+        assertTrue(Parallel.map(new ArrayList<Integer>(), i -> i).isEmpty());
+    }
+
+    /** Commands taking a commit id take any prefix of it that no other
+     *  commit shares, whatever its case. */
+    @Test
+    public void abbreviatedIDTest() {
+        File dir = repo();
+        Map<Character, String> byFirst = new HashMap<>();
+        String[] shared = null;
+        for (int k = 0; shared == null; k += 1) {
+            write(dir, "f.txt", "version " + k);
+            gitlet(dir, "add", "f.txt");
+            gitlet(dir, "commit", "c" + k);
+            String id = gitlet(dir, "log").split("\n")[1]
+                .substring("commit ".length());
+            String other = byFirst.put(id.charAt(0), id);
+            if (other != null) {
+                shared = new String[] {other, id};
+            }
+        }
+        String older = shared[0];
+        String prefix = older.substring(0, 1);
+        while (shared[1].startsWith(prefix)) {
+            prefix = older.substring(0, prefix.length() + 1);
+        }
+        assertEquals("That commit id is ambiguous.\n",
+                gitlet(dir, "checkout", older.substring(0, 1), "--", "f.txt"));
+        assertEquals("No commit with that id exists.\n",
+                gitlet(dir, "reset", "zzzz"));
+        assertEquals("", gitlet(dir, "checkout",
+                prefix.toUpperCase(), "--", "f.txt"));
+        String expected = read(dir, "f.txt");
+        gitlet(dir, "checkout", older, "--", "f.txt");
+        assertEquals(expected, read(dir, "f.txt"));
+        gitlet(dir, "checkout", "--", "f.txt");
+        assertEquals("", gitlet(dir, "reset", prefix));
+        assertEquals("commit " + older,
+                gitlet(dir, "log").split("\n")[1]);
+    }
+
+    /** The commit log reads back what was appended to it or written over
+     *  it, and each commit made appends exactly one id. */
+    @Test
+    public void commitLogTest() {
+        File file = new File(tempDir(), CommitLog.LOG_NAME);
+        CommitLog log = new CommitLog(file);
+        assertNull(log.first());
+        try {
+            log.append(idOf("a"));
+            log.append(idOf("b"));
+            CommitLog again = new CommitLog(file);
+            assertEquals(List.of(idOf("a"), idOf("b")), again.ids());
+            assertEquals(idOf("a"), again.first());
+            again.write(new ArrayList<>(List.of(idOf("c"))));
+            assertEquals(List.of(idOf("c")), new CommitLog(file).ids());
+        } finally {
+            WriteBatch.discard();
+        }
+        assertFalse(file.exists());
+
+        File dir = repo();
+        File root = new File(dir, ".gitlet");
+        assertTrue(new File(root, "branches").isFile());
+        assertTrue(new File(root, "HEAD").isFile());
+        assertEquals(ObjectStore.ID_BYTES,
+                new File(root, CommitLog.LOG_NAME).length());
+        write(dir, "f.txt", "one");
+        gitlet(dir, "add", "f.txt");
+        gitlet(dir, "commit", "one");
+        gitlet(dir, "branch", "other");
+        assertEquals(2 * ObjectStore.ID_BYTES,
+                new File(root, CommitLog.LOG_NAME).length());
+        assertFalse(new File(root, "mainTree").exists());
+        assertEquals(2, gitlet(dir, "global-log").split("\n===").length);
+    }
+
+    /** A Bloom filter never misses an id added to it, seldom claims one
+     *  that was not, and reads back from its encoding unchanged. */
+    @Test
+    public void bloomFilterTest() {
+        int count = 1000;
+        BloomFilter filter = new BloomFilter(count, 12345);
+        for (int k = 0; k < count; k += 1) {
+            filter.add(ObjectStore.toRaw(idOf("in " + k)));
+        }
+        BloomFilter read = BloomFilter.fromBytes(filter.toByteArray());
+        assertTrue(read.covers(count, 12345));
+        assertFalse(read.covers(count + 1, 12345));
+        assertFalse(read.covers(count, 12346));
+        for (int k = 0; k < count; k += 1) {
+            assertTrue(read.mightContain(ObjectStore.toRaw(idOf("in " + k))));
+        }
+        int wrong = 0;
+        for (int k = 0; k < 10 * count; k += 1) {
+            if (read.mightContain(ObjectStore.toRaw(idOf("out " + k)))) {
+                wrong += 1;
+            }
+        }
+        assertTrue(wrong < count / 2);
+        assertNull(BloomFilter.fromBytes(new byte[3]));
+    }
+
+    /** Switching branches rewrites only the files that differ between the
+     *  two commits, and still restores a shared file changed in the
+     *  working directory. */
+    @Test
+    public void incrementalCheckoutTest() throws IOException {
+        File dir = repo();
+        write(dir, "s.txt", "shared");
+        write(dir, "f.txt", "master");
+        gitlet(dir, "add", "s.txt", "f.txt");
+        gitlet(dir, "commit", "c1");
+        gitlet(dir, "branch", "other");
+        gitlet(dir, "checkout", "other");
+        write(dir, "f.txt", "other");
+        write(dir, "lib/n.txt", "new");
+        gitlet(dir, "add", "f.txt", "lib/n.txt");
+        gitlet(dir, "commit", "c2");
+        gitlet(dir, "checkout", "master");
+        File shared = new File(dir, "s.txt");
+        long past = shared.lastModified() - 100000;
+        shared.setLastModified(past);
+        Object inode = Files.getAttribute(shared.toPath(), "unix:ino");
+        assertEquals("", gitlet(dir, "checkout", "other"));
+        assertEquals("other", read(dir, "f.txt"));
+        assertEquals("new", read(dir, "lib/n.txt"));
+        assertEquals(past, shared.lastModified());
+        assertEquals(inode, Files.getAttribute(shared.toPath(), "unix:ino"));
+        write(dir, "s.txt", "changed");
+        assertEquals("", gitlet(dir, "checkout", "master"));
+        assertEquals("shared", read(dir, "s.txt"));
+        assertEquals("master", read(dir, "f.txt"));
+        assertFalse(new File(dir, "lib").exists());
+    }
+
+    /** Commands sent through the client to a running server print what
+     *  they print when run alone, and see what other processes change;
+     *  without a server the client runs the command itself. */
+    @Test
+    public void serverTest() throws IOException, InterruptedException {
+        File dir = repo();
+        write(dir, "f.txt", "one");
+        assertEquals("", client(dir, "add", "f.txt"));
+        File socket = new File(dir, ".gitlet/" + Server.SOCKET_NAME);
+        Process server = command(dir, "serve").start();
+        try {
+            for (int k = 0; k < 200 && !socket.exists(); k += 1) {
+                Thread.sleep(50);
+            }
+            assertTrue(socket.exists());
+            assertEquals("A server is already running.\n",
+                    gitlet(dir, "serve"));
+            assertEquals("", client(dir, "commit", "one"));
+            assertEquals(gitlet(dir, "log"), client(dir, "log"));
+            write(dir, "f.txt", "two");
+            gitlet(dir, "add", "f.txt");
+            gitlet(dir, "commit", "two");
+            assertEquals(gitlet(dir, "log"), client(dir, "log"));
+            assertEquals(gitlet(dir, "status"), client(dir, "status"));
+            assertEquals("No commit with that id exists.\n",
+                    client(dir, "reset", "zzzz"));
+            assertEquals("The server cannot run that command.\n",
+                    client(dir, "watch"));
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+        assertEquals(gitlet(dir, "log"), client(dir, "log"));
+    }
+
+    /**
+     * Writes TEXT to STORE as a blob, from a file .blob of DIR.
+     * @param store the object store.
+     * @param dir the working directory.
+     * @param text the content.
+     * @return the id of the blob.
+     */
+    static String storeBlob(ObjectStore store, File dir, String text) {
+        write(dir, ".blob", text);
+        Blob blob = Blob.fromFile(".blob", new File(dir, ".blob"));
+        blob.writeBlob(store);
+        return blob.getID();
+    }
+
+    /**
+     * Returns the names in the directory DIR, sorted.
+     * @param dir the directory.
+     * @return the names.
+     */
+    static List<String> sortedList(File dir) {
+        List<String> names = new ArrayList<>(List.of(dir.list()));
+        names.sort(null);
+        return names;
+    }
+
+    /**
+     * Returns a new empty directory, standing for a .gitlet directory.
+     * @return the directory.
+     */
+    static File tempDir() {
+        try {
+            File dir = Files.createTempDirectory("gitlet-test").toFile();
+            dir.deleteOnExit();
+            return dir;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the pack of the store whose .gitlet directory is ROOT.
+     * @param root the .gitlet directory.
+     * @return the pack.
+     */
+    static File packOf(File root) {
+        return new File(new File(root, ObjectStore.PACK_DIR),
+                ObjectStore.PACK_NAME);
+    }
+
+    /**
+     * Returns the bytes of TEXT.
+     * @param text the text.
+     * @return its UTF-8 bytes.
+     */
+    static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns an id made from TEXT.
+     * @param text the text.
+     * @return its SHA-1.
+     */
+    static String idOf(String text) {
+        return Utils.sha1(text);
+    }
+
+    /**
+     * Returns a new working directory holding a new repository.
+     * @return the working directory.
+     */
+    static File repo() {
+        File dir = tempDir();
+        gitlet(dir, "init");
+        return dir;
+    }
+
+    /**
+     * Runs gitlet with the arguments ARGS in the working directory DIR, in
+     * a process of its own, as its working directory is fixed per process.
+     * @param dir the working directory.
+     * @param args the command and its operands.
+     * @return what it printed.
+     */
+    static String gitlet(File dir, String... args) {
+        return output(command(dir, args));
+    }
+
+    /**
+     * Runs the process BUILDER to its end.
+     * @param builder the process.
+     * @return what it printed.
+     */
+    static String output(ProcessBuilder builder) {
+        try {
+            Process process = builder.start();
+            String out = new String(process.getInputStream().readAllBytes(),
+                    StandardCharsets.UTF_8);
+            process.waitFor();
+            return out;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
 
+    /**
+     * Returns the process running gitlet with the arguments ARGS in the
+     * working directory DIR, its errors merged into its output.
+     * @param dir the working directory.
+     * @param args the command and its operands.
+     * @return the process, not started.
+     */
+    static ProcessBuilder command(File dir, String... args) {
+        ArrayList<String> command = new ArrayList<>(List.of(
+                System.getProperty("java.home") + "/bin/java", "-cp",
+                System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true);
+    }
+
+    /**
+     * Runs the gitlet client with the arguments ARGS in the working
+     * directory DIR, in a process of its own.
+     * @param dir the working directory.
+     * @param args the command and its operands.
+     * @return what it printed.
+     */
+    static String client(File dir, String... args) {
+        ProcessBuilder builder = command(dir, args);
+        builder.command().set(3, "gitlet.Client");
+        return output(builder);
+    }
+
+    /**
+     * Writes TEXT to the file NAME of the working directory DIR, making
+     * its directories.
+     * @param dir the working directory.
+     * @param name the name of the file.
+     * @param text its contents.
+     */
+    static void write(File dir, String name, String text) {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, bytes(text));
+    }
+
+    /**
+     * Returns the contents of the file NAME of the working directory DIR.
+     * @param dir the working directory.
+     * @param name the name of the file.
+     * @return its contents.
+     */
+    static String read(File dir, String name) {
+        return new String(Utils.readContents(new File(dir, name)),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,598 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** The optional watcher of the working directory, so that status need
+ *  not look at the files that did not change since it last ran.
+ *
+ *  `java gitlet.Main watch` runs the watcher until it is killed. It holds
+ *  a lock on .gitlet/watch.lock, watches every directory of the working
+ *  tree outside .gitlet with a WatchService, and appends a line to the
+ *  journal, .gitlet/.stage/watch-journal, for every path that changed:
+ *  "P path". It starts the journal afresh with "S session base", and
+ *  writes "O" if events were lost.
+ *
+ *  A command asking what changed first makes a cookie file at the top of
+ *  the working tree and waits for the watcher to write "C cookie", so
+ *  that every change made before is in the journal. It then reads the
+ *  journal from where the last query stopped, which .gitlet/.stage/
+ *  watch-state records along with every file of the working tree then.
+ *  If no watcher holds the lock, the session changed, events were
+ *  lost or the cookie is not seen in time, the answer is that anything
+ *  may have changed, and the caller looks at every file.
+ *
+ *  Offsets into the journal count the bytes written after its header
+ *  since the watcher started, so they survive the journal being cut.
+ *  Whenever the watcher acknowledges a cookie and the state shows that
+ *  queries have read more than COMPACT bytes of the journal, it writes
+ *  the rest to a new journal whose header has as its base the offset of
+ *  that rest, and renames it over the old one.
+ *  @author Yulin Li
+ */
+class Watcher {
+
+    /** The name of the journal, in the stage directory. */
+    static final String JOURNAL_NAME = "watch-journal";
+    /** The name of the state of the last query, in the stage directory. */
+    static final String STATE_NAME = "watch-state";
+    /** The name of the lock held by the watcher, in .gitlet. */
+    static final String LOCK_NAME = "watch.lock";
+    /** The prefix of the names of cookie files. */
+    private static final String COOKIE = ".gitlet-cookie-";
+    /** How long a query waits for its cookie, in milliseconds. */
+    private static final long COOKIE_WAIT = 1000;
+    /** How long a query sleeps between looks at the journal, in
+     *  milliseconds. */
+    private static final long POLL = 5;
+    /** The length of the part of the journal already read past which the
+     *  watcher drops that part. */
+    static final long COMPACT = 1 << 12;
+
+    /** The journal. */
+    private static final File JOURNAL = new File(Stage.STAGEFILE,
+            JOURNAL_NAME);
+    /** The state of the last query. */
+    private static final File STATE = new File(Stage.STAGEFILE, STATE_NAME);
+    /** The lock held by the watcher. */
+    private static final File LOCK = new File(Stage.MAINFILE, LOCK_NAME);
+
+    /** The session of the watcher, or null if none is running. */
+    private String _session;
+    /** How far the journal was read by this query. */
+    private long _offset;
+    /** The paths changed since the last query, or null if any may have. */
+    private HashSet<String> _changed;
+    /** The names of the files of the working tree at the last query, or
+     *  null if they are not known. */
+    private List<String> _files;
+
+    /** A query finding nothing out, so that anything may have changed. */
+    private Watcher() {
+    }
+
+    /**
+     * Returns what changed in the working directory since the last query.
+     * @return the query.
+     */
+    static Watcher query() {
+        Watcher query = new Watcher();
+        if (!LOCK.isFile() || !running()) {
+            if (WriteBatch.exists(STATE)
+                    && WriteBatch.readContents(STATE).length > 0) {
+                WriteBatch.write(STATE, new byte[0]);
+            }
+            return query;
+        }
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-"
+            + System.nanoTime();
+        File cookieFile = new File(Main.CWD, cookie);
+        try {
+            String[] header = header();
+            if (header == null) {
+                return query;
+            }
+            query._session = header[0];
+            long from = query.load() ? query._offset
+                : Long.parseLong(header[1]);
+            cookieFile.createNewFile();
+            long deadline = System.currentTimeMillis() + COOKIE_WAIT;
+            ArrayList<String> lines = new ArrayList<>();
+            long[] end = {from};
+            while (!lines.contains("C " + cookie)) {
+                if (System.currentTimeMillis() > deadline) {
+                    query._session = null;
+                    return query;
+                }
+                Thread.sleep(POLL);
+                List<String> more = readFrom(query._session, end[0], end);
+                if (more == null) {
+                    query._session = null;
+                    return query;
+                }
+                lines.addAll(more);
+            }
+            query.since(lines, from, cookie);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            query._session = null;
+        } finally {
+            cookieFile.delete();
+        }
+        return query;
+    }
+
+    /**
+     * Reads the state of the last query, if it was made while the watcher
+     * that is running now was.
+     * @return true if it was.
+     */
+    private boolean load() {
+        if (!WriteBatch.exists(STATE)) {
+            return false;
+        }
+        byte[] bytes = WriteBatch.readContents(STATE);
+        if (bytes.length == 0) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            if (!in.readUTF().equals(_session)) {
+                return false;
+            }
+            _offset = in.readLong();
+            _files = new ArrayList<>();
+            for (int k = in.readInt(); k > 0; k -= 1) {
+                _files.add(in.readUTF());
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Takes the changes from LINES, the lines of the journal from byte
+     * FROM on, up to the acknowledgement of COOKIE, after which the next
+     * query starts.
+     * @param lines the lines.
+     * @param from the offset of the first line.
+     * @param cookie the name of the cookie of this query.
+     */
+    private void since(List<String> lines, long from, String cookie) {
+        HashSet<String> changed = new HashSet<>();
+        boolean lost = _files == null;
+        _offset = from;
+        for (String line : lines) {
+            _offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (line.equals("C " + cookie)) {
+                break;
+            } else if (line.equals("O")) {
+                lost = true;
+            } else if (line.startsWith("P ")) {
+                changed.add(line.substring(2));
+            }
+        }
+        _changed = lost ? null : changed;
+    }
+
+    /**
+     * Returns true if the changes since the last query are known.
+     * @return if they are.
+     */
+    boolean tracking() {
+        return _changed != null;
+    }
+
+    /**
+     * Returns true if the file named NAME, or a directory holding it, may
+     * have changed since the last query.
+     * @param name the name of the file, relative to the working directory.
+     * @return if it may have.
+     */
+    boolean changed(String name) {
+        if (_changed == null || _changed.contains(name)) {
+            return true;
+        }
+        for (int slash = name.indexOf('/'); slash >= 0;
+             slash = name.indexOf('/', slash + 1)) {
+            if (_changed.contains(name.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the names of the files of the working tree, from those at
+     * the last query and the changes since, looking only at the paths
+     * that changed. A path that is no longer a file or a directory drops
+     * every file under it; the files of a new directory are changes of
+     * their own.
+     * @return the names, or null if they are not known.
+     */
+    List<String> workingFiles() {
+        if (_changed == null) {
+            return null;
+        }
+        TreeSet<String> names = new TreeSet<>(_files);
+        for (String path : _changed) {
+            File file = new File(Main.CWD, path);
+            if (file.isFile()) {
+                names.add(path);
+                continue;
+            }
+            names.remove(path);
+            if (!file.isDirectory()) {
+                names.subSet(path + "/", path + "0").clear();
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Records that this query saw the files FILES in the working tree, so
+     * that the next query starts from there.
+     * @param files the names of the files.
+     */
+    void save(List<String> files) {
+        if (_session == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(_session);
+            out.writeLong(_offset);
+            out.writeInt(files.size());
+            for (String name : files) {
+                out.writeUTF(name);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        WriteBatch.write(STATE, bytes.toByteArray());
+    }
+
+    /**
+     * Returns the session and the base of the header of the journal.
+     * @return the two, or null if there is no journal yet.
+     * @throws IOException if the journal cannot be read.
+     */
+    private static String[] header() throws IOException {
+        if (!JOURNAL.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            return parseHeader(in.readLine());
+        }
+    }
+
+    /**
+     * Returns the session and the base of the header LINE.
+     * @param line the first line of the journal, or null.
+     * @return the two, or null if LINE is not a whole header.
+     */
+    private static String[] parseHeader(String line) {
+        if (line == null || !line.startsWith("S ")) {
+            return null;
+        }
+        String[] header = line.substring(2).split(" ");
+        return header.length == 2 && header[1].matches("[0-9]+")
+            ? header : null;
+    }
+
+    /**
+     * Returns the whole lines of the journal of the watcher SESSION from
+     * offset FROM on, and sets END[0] to the offset after the last.
+     * @param session the session of the watcher.
+     * @param from the offset of the first line.
+     * @param end the array receiving the offset after the last line.
+     * @return the lines, without their newlines, or null if the journal
+     *         is now that of another session or no longer holds FROM.
+     * @throws IOException if the journal cannot be read.
+     */
+    private static ArrayList<String> readFrom(String session, long from,
+                                              long[] end)
+        throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        end[0] = from;
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            String[] header = parseHeader(in.readLine());
+            if (header == null || !header[0].equals(session)) {
+                return null;
+            }
+            long base = Long.parseLong(header[1]);
+            if (from < base) {
+                return null;
+            }
+            long position = in.getFilePointer() + from - base;
+            if (in.length() <= position) {
+                return lines;
+            }
+            byte[] bytes = new byte[(int) (in.length() - position)];
+            in.seek(position);
+            in.readFully(bytes);
+            int start = 0;
+            for (int i = 0; i < bytes.length; i += 1) {
+                if (bytes[i] == '\n') {
+                    lines.add(new String(bytes, start, i - start,
+                            StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            end[0] = from + start;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the session and offset the state of the last query records,
+     * as another process reads it.
+     * @return the session and offset, or null if none is recorded.
+     * @throws IOException if the state cannot be read.
+     */
+    private static String[] consumed() throws IOException {
+        if (!STATE.isFile() || STATE.length() == 0) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(STATE.toPath()))) {
+            return new String[] {in.readUTF(), Long.toString(in.readLong())};
+        }
+    }
+
+    /**
+     * Returns true if a watcher holds the lock.
+     * @return if one is running.
+     */
+    private static boolean running() {
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Watches the working directory, writing the journal, until the
+     * process is killed. Prints why and returns if a watcher is already
+     * running.
+     */
+    static void watch() {
+        try (FileChannel channel = FileChannel.open(LOCK.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                System.out.println("A watcher is already running.");
+                return;
+            }
+            new Watching().run();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A running watcher. */
+    private static class Watching {
+
+        /** The working directory. */
+        private final Path _root = Main.CWD.toPath();
+        /** The service. */
+        private final WatchService _service;
+        /** The directory of each key. */
+        private final HashMap<WatchKey, Path> _dirs = new HashMap<>();
+        /** The session of this watcher. */
+        private final String _session = ProcessHandle.current().pid() + "-"
+            + System.nanoTime();
+        /** The journal. */
+        private OutputStream _journal;
+        /** The offset of the first line after the header of the journal. */
+        private long _base;
+        /** The offset after the last line written. */
+        private long _written;
+
+        /**
+         * A watcher starting a new journal.
+         * @throws IOException if the service or journal cannot be made.
+         */
+        Watching() throws IOException {
+            _service = FileSystems.getDefault().newWatchService();
+            _journal = new FileOutputStream(JOURNAL);
+            _journal.write(headerOf(0));
+            _journal.flush();
+        }
+
+        /**
+         * Writes the events of the working directory to the journal, for
+         * as long as the process runs.
+         * @throws IOException if the journal cannot be written.
+         * @throws InterruptedException if the watcher is interrupted.
+         */
+        void run() throws IOException, InterruptedException {
+            register(_root, null);
+            while (true) {
+                ArrayList<WatchKey> keys = new ArrayList<>();
+                keys.add(_service.take());
+                for (WatchKey key = _service.poll(); key != null;
+                     key = _service.poll()) {
+                    keys.add(key);
+                }
+                ArrayList<String> cookies = new ArrayList<>();
+                for (WatchKey key : keys) {
+                    Path dir = _dirs.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW || dir == null) {
+                            write("O");
+                            continue;
+                        }
+                        Path child = dir.resolve((Path) event.context());
+                        String name = nameOf(child);
+                        if (name.startsWith(COOKIE)) {
+                            if (event.kind() == ENTRY_CREATE) {
+                                cookies.add(name);
+                            }
+                        } else if (!name.equals(".gitlet")
+                                   && !name.startsWith(".gitlet/")) {
+                            write("P " + name);
+                            if (event.kind() == ENTRY_CREATE
+                                    && Files.isDirectory(child)) {
+                                register(child, this);
+                            }
+                        }
+                    }
+                    if (!key.reset()) {
+                        _dirs.remove(key);
+                    }
+                }
+                for (String cookie : cookies) {
+                    write("C " + cookie);
+                }
+                _journal.flush();
+                if (!cookies.isEmpty()) {
+                    compact();
+                }
+            }
+        }
+
+        /**
+         * Drops the part of the journal that the state shows was read, if
+         * it is longer than COMPACT, by writing the rest to a new journal
+         * and renaming it over the old one.
+         * @throws IOException if the journal cannot be rewritten.
+         */
+        private void compact() throws IOException {
+            String[] consumed = consumed();
+            if (consumed == null || !consumed[0].equals(_session)) {
+                return;
+            }
+            long offset = Long.parseLong(consumed[1]);
+            if (offset - _base < COMPACT || offset > _written) {
+                return;
+            }
+            File temp = new File(Stage.STAGEFILE, JOURNAL_NAME + ".tmp");
+            try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r");
+                 FileOutputStream out = new FileOutputStream(temp)) {
+                in.seek(headerOf(_base).length + offset - _base);
+                byte[] rest = new byte[(int) (_written - offset)];
+                in.readFully(rest);
+                out.write(headerOf(offset));
+                out.write(rest);
+            }
+            _journal.close();
+            Files.move(temp.toPath(), JOURNAL.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _journal = new FileOutputStream(JOURNAL, true);
+            _base = offset;
+        }
+
+        /**
+         * Returns the header of a journal whose first line after it is at
+         * offset BASE.
+         * @param base the offset.
+         * @return the header, with its newline.
+         */
+        private byte[] headerOf(long base) {
+            return ("S " + _session + " " + base + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Watches the directory DIR and every directory under it, outside
+         * .gitlet. If JOURNAL is not null, every file found is written
+         * to it as changed, as it may have been made before it was
+         * watched.
+         * @param dir the directory.
+         * @param journal this watcher, or null.
+         * @throws IOException if the directories cannot be walked.
+         */
+        private void register(Path dir, Watching journal)
+            throws IOException {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path sub, BasicFileAttributes attrs)
+                    throws IOException {
+                    if (sub.equals(Stage.MAINFILE.toPath())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    _dirs.put(sub.register(_service, ENTRY_CREATE,
+                            ENTRY_DELETE, ENTRY_MODIFY), sub);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    if (journal != null) {
+                        journal.write("P " + nameOf(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * Returns the name of PATH relative to the working directory.
+         * @param path the path.
+         * @return the name, with its names separated by slashes.
+         */
+        private String nameOf(Path path) {
+            return _root.relativize(path).toString()
+                .replace(File.separatorChar, '/');
+        }
+
+        /**
+         * Writes LINE to the journal.
+         * @param line the line, without its newline.
+         * @throws IOException if the journal cannot be written.
+         */
+        private void write(String line) throws IOException {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            _journal.write(bytes);
+            _written += bytes.length;
+        }
+    }
+}
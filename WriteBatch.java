@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** The files a command rewrites, written to disk together when the command
+ *  ends. The branches, the stage, the format file, the pack indexes and
+ *  the other files of the repository are all handed to the batch instead
+ *  of being written one by one, and reads of them see what the batch
+ *  holds. Files that only ever grow, such as the commit log, can instead
+ *  be appended to, so that a command does not rewrite all of them.
+ *
+ *  Committing the batch syncs the packs that were appended to, then writes
+ *  every file that changed into one journal, .gitlet/batch, syncs it once
+ *  and renames it into place. Only then is each file replaced, by writing
+ *  and syncing a temporary file next to it and renaming it over the old
+ *  one, and each appended file cut back to its old length, appended to
+ *  and synced. The journal is deleted only once the directories holding
+ *  all of them are synced too, so that none of the renames can be lost.
+ *  A command that dies before the journal is renamed leaves the
+ *  repository as it was; one that dies after it is finished by the next
+ *  command, which replays the journal before doing anything else.
+ *  @author Yulin Li
+ */
+public class WriteBatch {
+
+    /** The journal of the batch being published. */
+    static final File JOURNAL = new File(Commit.MAINFILE, "batch");
+    /** The suffix of the files being written before their rename. */
+    private static final String TEMP = ".tmp";
+
+    /** The files written by this command, keyed by absolute path. */
+    private static final LinkedHashMap<String, byte[]> PENDING =
+        new LinkedHashMap<>();
+    /** The bytes appended by this command, keyed by absolute path. */
+    private static final LinkedHashMap<String, Append> APPENDS =
+        new LinkedHashMap<>();
+
+    /** The bytes appended to a file. */
+    private static class Append {
+        /** The length of the file before they are appended. */
+        private final long _base;
+        /** The bytes. */
+        private final ByteArrayOutputStream _bytes =
+            new ByteArrayOutputStream();
+
+        /**
+         * Bytes appended to a file of length BASE.
+         * @param base the length of the file.
+         */
+        Append(long base) {
+            _base = base;
+        }
+    }
+
+    /**
+     * Stages CONTENTS as the new contents of FILE.
+     * @param file the file.
+     * @param contents its new contents.
+     */
+    public static void write(File file, byte[] contents) {
+        PENDING.put(file.getAbsolutePath(), contents);
+    }
+
+    /**
+     * Stages BYTES to be appended to FILE, after what was appended to it
+     * so far.
+     * @param file the file.
+     * @param bytes the bytes to append.
+     */
+    public static void append(File file, byte[] bytes) {
+        String path = file.getAbsolutePath();
+        byte[] staged = PENDING.get(path);
+        if (staged != null) {
+            byte[] longer = Arrays.copyOf(staged, staged.length + bytes.length);
+            System.arraycopy(bytes, 0, longer, staged.length, bytes.length);
+            PENDING.put(path, longer);
+            return;
+        }
+        APPENDS.computeIfAbsent(path, k -> new Append(file.length()))
+            ._bytes.writeBytes(bytes);
+    }
+
+    /**
+     * Returns the contents of FILE, as staged in this batch if it is.
+     * @param file the file.
+     * @return its contents.
+     */
+    public static byte[] readContents(File file) {
+        byte[] staged = PENDING.get(file.getAbsolutePath());
+        if (staged != null) {
+            return staged;
+        }
+        Append append = APPENDS.get(file.getAbsolutePath());
+        if (append == null) {
+            return Utils.readContents(file);
+        }
+        byte[] contents = file.isFile()
+            ? Arrays.copyOf(Utils.readContents(file), (int) append._base)
+            : new byte[0];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(contents);
+        bytes.writeBytes(append._bytes.toByteArray());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the length of FILE, as staged in this batch if it is, without
+     * reading it.
+     * @param file the file.
+     * @return its length, 0 if it does not exist.
+     */
+    public static long length(File file) {
+        byte[] staged = PENDING.get(file.getAbsolutePath());
+        if (staged != null) {
+            return staged.length;
+        }
+        Append append = APPENDS.get(file.getAbsolutePath());
+        if (append == null) {
+            return file.length();
+        }
+        return append._base + append._bytes.size();
+    }
+
+    /**
+     * Returns true if FILE exists on disk or is staged in this batch.
+     * @param file the file.
+     * @return if it exists.
+     */
+    public static boolean exists(File file) {
+        return PENDING.containsKey(file.getAbsolutePath())
+            || APPENDS.containsKey(file.getAbsolutePath()) || file.isFile();
+    }
+
+    /**
+     * Drops every file staged by this command without writing it, as a
+     * command that ends without committing leaves the repository as it
+     * was.
+     */
+    public static void discard() {
+        PENDING.clear();
+        APPENDS.clear();
+    }
+
+    /**
+     * Publishes every file staged by this command. Files whose contents
+     * did not change are left alone, and nothing is synced at all if no
+     * file or object changed.
+     */
+    public static void commit() {
+        LinkedHashMap<String, byte[]> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : PENDING.entrySet()) {
+            File file = new File(entry.getKey());
+            if (!file.isFile()
+                    || !Arrays.equals(Utils.readContents(file),
+                                      entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        LinkedHashMap<String, Append> appended = new LinkedHashMap<>(APPENDS);
+        PENDING.clear();
+        APPENDS.clear();
+        ObjectStore.syncAll();
+        if (changed.isEmpty() && appended.isEmpty()) {
+            return;
+        }
+        File temp = new File(JOURNAL.getPath() + TEMP);
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(changed.size());
+            for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.writeInt(appended.size());
+            for (Map.Entry<String, Append> entry : appended.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()._base);
+                out.writeInt(entry.getValue()._bytes.size());
+                entry.getValue()._bytes.writeTo(out);
+            }
+            out.flush();
+            bytes.writeTo(file);
+            file.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        replace(temp, JOURNAL);
+        Set<File> dirs = new LinkedHashSet<>();
+        dirs.add(JOURNAL.getParentFile());
+        apply(changed, dirs);
+        for (Map.Entry<String, Append> entry : appended.entrySet()) {
+            applyAppend(entry.getKey(), entry.getValue()._base,
+                    entry.getValue()._bytes.toByteArray(), dirs);
+        }
+        finish(dirs);
+    }
+
+    /**
+     * Finishes publishing the batch of a command that died after its
+     * journal was written, and drops the journal of one that died before.
+     */
+    public static void recover() {
+        new File(JOURNAL.getPath() + TEMP).delete();
+        if (!JOURNAL.isFile()) {
+            return;
+        }
+        LinkedHashMap<String, byte[]> changed = new LinkedHashMap<>();
+        Set<File> dirs = new LinkedHashSet<>();
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(JOURNAL.toPath()))) {
+            for (int k = in.readInt(); k > 0; k -= 1) {
+                String path = in.readUTF();
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                changed.put(path, contents);
+            }
+            apply(changed, dirs);
+            if (in.available() > 0) {
+                for (int k = in.readInt(); k > 0; k -= 1) {
+                    String path = in.readUTF();
+                    long base = in.readLong();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    applyAppend(path, base, bytes, dirs);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        finish(dirs);
+    }
+
+    /**
+     * Replaces every file in CHANGED by its new contents, synced, adding
+     * the directories holding them to DIRS.
+     * @param changed the map from absolute paths to new contents.
+     * @param dirs the directories to sync before the journal is deleted.
+     */
+    private static void apply(Map<String, byte[]> changed, Set<File> dirs) {
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+            File file = new File(entry.getKey());
+            File temp = new File(entry.getKey() + TEMP);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(entry.getValue());
+                out.getFD().sync();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            replace(temp, file);
+            dirs.add(file.getParentFile());
+        }
+    }
+
+    /**
+     * Appends BYTES to the file at PATH, once cut back to the length BASE
+     * it had before, so that doing it twice does no harm, and syncs it,
+     * adding the directory holding it to DIRS.
+     * @param path the absolute path of the file.
+     * @param base its length before the append.
+     * @param bytes the bytes to append.
+     * @param dirs the directories to sync before the journal is deleted.
+     */
+    private static void applyAppend(String path, long base, byte[] bytes,
+                                    Set<File> dirs) {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(base);
+            file.seek(base);
+            file.write(bytes);
+            file.getFD().sync();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirs.add(new File(path).getParentFile());
+    }
+
+    /**
+     * Syncs the directories DIRS, so that the renames and new files in
+     * them are on disk, and only then deletes the journal.
+     * @param dirs the directories.
+     */
+    private static void finish(Set<File> dirs) {
+        for (File dir : dirs) {
+            try (FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        JOURNAL.delete();
+    }
+
+    /**
+     * Renames FROM over TO in one step.
+     * @param from the file being renamed.
+     * @param to the file it replaces.
+     */
+    private static void replace(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}